@@ -1,8 +1,21 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
 import tma.blackjack.BJController;
+import tma.blackjack.BJStrategy;
+import tma.blackjack.RuleSet;
+import tma.blackjack.analysis.Composition;
+import tma.blackjack.analysis.ExpectedValues;
+import tma.blackjack.log.*;
+import tma.blackjack.sim.*;
+import tma.blackjack.table.*;
 import tma.deck.*;
 import tma.deck.card.CardContext;
+import tma.deck.card.Rank;
 
 
 /**
@@ -12,6 +25,11 @@ import tma.deck.card.CardContext;
  * 		1-Test dealing, burning, printing card names
  * 		2-Test scoring of random hands ranging in size from 2-5 cards
  * 		3-Test BJPlayer
+ * 		4-Test that a steady-state simulated round allocates nothing
+ * 		5-Test continuous shuffling: counts and uniform draws
+ * 		6-Test copy-on-write snapshots of the shoe's composition
+ * 		7-Test that a two-card decision on a 6-deck shoe takes under 1 ms
+ * 		8-Test that a table's hand log replays
  * @author Tyler Ambroziak
  *
  */
@@ -31,6 +49,11 @@ public class DeckTest {
 		switch (testMode) {
 		case 1: testDealing(); break;
 		case 2: testScoring(); break;
+		case 4: testAllocation(); break;
+		case 5: testContinuousShuffle(); break;
+		case 6: testSnapshots(); break;
+		case 7: testDecisionTime(); break;
+		case 8: testTableReplay(); break;
 		}
 		return;
 	}
@@ -124,4 +147,181 @@ public class DeckTest {
 
 		}
 	}
-}
\ No newline at end of file
+
+	private static void testAllocation() {
+		// ThreadMXBean from com.sun.management can count a thread's allocations
+		com.sun.management.ThreadMXBean threads = 
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().threadId();
+		// split to at most 4 hands, so the warm up grows the players' arrays
+		// to their final size and no later round has any reason to allocate
+		Simulator sim = new Simulator(7, RuleSet.DEFAULT.withMaxHands(4), BJStrategy.getInstance());
+		SimulationResult result = new SimulationResult();
+
+		// warm up: let the JIT compile the round, and the players' arrays grow
+		for (int i = 0; i < 500000; i++) sim.playRound(result);
+
+		int rounds = 100000;
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < rounds; i++) sim.playRound(result);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		System.out.println("Allocated " + allocated + " bytes in " + rounds + " rounds");
+		if (allocated > 0) {
+			System.out.println("FAILED: steady-state rounds should not allocate");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void testContinuousShuffle() {
+		Deck csm = new Deck(1, context);
+		csm.setContinuousShuffle(true);
+		ArrayList<Card> hand = new ArrayList<Card>();
+		int[] drawn = new int[13];
+		int draws = 0;
+
+		// deal and burn hands of 1-5 cards; every burned card goes straight
+		// back in, so the shoe never runs out
+		for (int i = 0; i < 200000; i++) {
+			for (int j = 0; j <= i % 5; j++) {
+				card = csm.drawCard();
+				hand.add(card);
+				drawn[card.getCode() % 13]++;
+				draws++;
+			}
+			int out = hand.size();
+			int unseen = 0;
+			for (Rank rank : Rank.values()) unseen = unseen + csm.remainingCount(rank);
+			if (csm.activeCount() != 52 - out || unseen != 52 - out || csm.burnCount() != 0) {
+				System.out.println("FAILED: counts off with " + out + " cards out");
+				System.exit(1);
+			}
+			csm.burnHand(hand);
+		}
+		if (csm.activeCount() != 52 || csm.runningCount() != 0) {
+			System.out.println("FAILED: shoe not whole after burning every hand");
+			System.exit(1);
+		}
+
+		// every rank should be drawn 1/13 of the time, give or take
+		for (int rank = 0; rank < 13; rank++) {
+			double share = drawn[rank] * 13.0 / draws;
+			System.out.println(String.format("Rank %2d: %d draws (%.3f of expected)", rank + 1, drawn[rank], share));
+			if (Math.abs(share - 1) > 0.02) {
+				System.out.println("FAILED: draws are not uniform");
+				System.exit(1);
+			}
+		}
+		System.out.println("OK");
+	}
+
+	private static void testSnapshots() {
+		Deck shoe = new Deck(6, context);
+		for (int i = 0; i < 20; i++) shoe.drawCard();
+		DeckSnapshot snapshot = shoe.snapshot();
+		int[] before = shoe.getComposition(null);
+
+		// the deck drawing on must not change the snapshot
+		for (int i = 0; i < 20; i++) shoe.drawCard();
+		boolean ok = Arrays.equals(before, snapshot.getComposition(null)) && snapshot.size() == 292;
+
+		// neither must a branch, or the deck, change when the other does
+		int[] drawn = shoe.getComposition(null);
+		DeckSnapshot branch = snapshot.copy();
+		// some Aces may have been drawn already; take out exactly those left
+		int aces = before[0];
+		for (int i = 0; i < aces; i++) branch.remove(Rank.Ace);
+		ok = ok && branch.remainingCount(Rank.Ace) == 0 && !branch.remove(Rank.Ace)
+				&& snapshot.remainingCount(Rank.Ace) == before[0]
+				&& Arrays.equals(drawn, shoe.getComposition(null));
+		for (int i = 0; i < aces; i++) branch.add(Rank.Ace);
+		ok = ok && Arrays.equals(before, branch.getComposition(null))
+				&& branch.runningCount() == snapshot.runningCount();
+
+		// folded into card values for the analysis engines
+		int[] values = Composition.of(snapshot);
+		ok = ok && Composition.size(values) == snapshot.size()
+				&& values[Composition.TEN] == before[9] + before[10] + before[11] + before[12];
+
+		System.out.println("Snapshot: " + snapshot.size() + " cards, running count " + snapshot.runningCount());
+		if (!ok) {
+			System.out.println("FAILED: snapshots are not independent of the deck and each other");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void testDecisionTime() {
+		// low pairs and low hard totals have the most shoe states to visit;
+		// {first, second, up card}, as card values (Ace = 0, tens = 9)
+		int[][] hands = { {1, 2, 9}, {3, 3, 5}, {1, 1, 4}, {0, 0, 5}, {2, 2, 6}, {8, 2, 1} };
+		ExpectedValues values = new ExpectedValues();
+		Random random = new Random(7);
+		int rounds = 300, warmUp = 100;
+		double[][] millis = new double[hands.length][rounds - warmUp];
+
+		// every decision gets a shoe of its own, so nothing comes from the caches
+		for (int round = 0; round < rounds; round++) {
+			for (int h = 0; h < hands.length; h++) {
+				int[] shoe = Composition.fullShoe(6);
+				for (int i = random.nextInt(40); i >= 0; i--) {
+					int card = random.nextInt(Composition.RANKS);
+					if (shoe[card] > 4) shoe[card]--;
+				}
+				for (int card : hands[h]) shoe[card]--;
+				long start = System.nanoTime();
+				values.evaluate(hands[h][0], hands[h][1], hands[h][2], shoe);
+				if (round >= warmUp) millis[h][round - warmUp] = (System.nanoTime() - start) / 1e6;
+			}
+		}
+
+		// judged on the median, so a stray GC or safepoint pause cannot fail it
+		boolean ok = true;
+		for (int h = 0; h < hands.length; h++) {
+			Arrays.sort(millis[h]);
+			double median = millis[h][millis[h].length / 2];
+			System.out.println(String.format("%d,%d v %d: median %.3f ms", hands[h][0] + 1,
+					hands[h][1] + 1, hands[h][2] + 1, median));
+			ok = ok && median < 1;
+		}
+		if (!ok) {
+			System.out.println("FAILED: a decision should take under 1 ms");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void testTableReplay() {
+		// splits, doubles and surrenders on a short shoe, so the log has
+		// every kind of move and shuffles mid round
+		RuleSet rules = RuleSet.parse("2D H17 DAS SP4 LS 3:2 75%");
+		Table table = new Table("Replay", rules, false);
+		for (int i = 0; i < 5; i++) {
+			table.addSeat("Seat " + i, new StrategyMoveSource(BJStrategy.getInstance(), rules));
+		}
+		table.setRoundLimit(20000);
+		ReplayResult result;
+		try {
+			Path dir = Files.createTempDirectory("tablelog");
+			HandLog log = new HandLog(dir, "table", 1 << 20);
+			table.setLog(log);
+			table.run();
+			log.close();
+			result = new HandReplay(dir, "table", rules).replay(2);
+			try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir)) {
+				for (Path segment : segments) Files.delete(segment);
+			}
+			Files.delete(dir);
+		} catch (IOException e) {
+			System.out.println("FAILED: " + e);
+			System.exit(1);
+			return;
+		}
+		System.out.println(result);
+		if (result.getRounds() != table.getRounds() || !result.matches()) {
+			System.out.println("FAILED: the table's log should replay round for round");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+}
@@ -0,0 +1,31 @@
+package tma.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Entrypoint for target/benchmarks.jar. Takes the usual JMH command line
+ * options, and always adds the gc profiler so every benchmark reports its
+ * allocation rate (gc.alloc.rate.norm is bytes per operation) alongside
+ * throughput.
+ * <br><br>
+ * Run from the top of the repo, since BJStrategy reads strategyGrid from the
+ * working directory:
+ * <pre>
+ * mvn -B package
+ * java -jar bench/target/benchmarks.jar [JMH options] [benchmark regex]
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		Options opts = new OptionsBuilder()
+				.parent(cmd)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(opts).run();
+	}
+}
@@ -0,0 +1,58 @@
+package tma.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tma.deck.*;
+
+/**
+ * Benchmarks for Deck: a full shuffle of 1, 6 and 8 pack shoes, and drawing a
+ * card. Drawn cards are burned right back so the shoe can be reshuffled when
+ * it runs out; that reshuffle is part of the cost per draw, spread over the
+ * whole shoe. A continuous shuffler draws a random card and takes it back,
+ * with no reshuffle at all.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeckBenchmark {
+	@Param({"1", "6", "8"})
+	public int packs;
+
+	private Deck deck;
+	private Deck csm;
+
+	@Setup
+	public void setup() {
+		deck = new Deck(packs);
+		csm = new Deck(packs);
+		csm.setContinuousShuffle(true);
+	}
+
+	@Benchmark
+	public int suffleDeck() {
+		deck.suffleDeck();
+		return deck.activeCount();
+	}
+
+	@Benchmark
+	public Card drawCard() {
+		if (deck.isEmpty()) deck.suffleDeck();
+		Card card = deck.drawCard();
+		deck.burnCard(card);
+		return card;
+	}
+
+	@Benchmark
+	public Card continuousDrawCard() {
+		Card card = csm.drawCard();
+		csm.burnCard(card);
+		return card;
+	}
+}
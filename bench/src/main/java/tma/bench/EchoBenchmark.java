@@ -0,0 +1,64 @@
+package tma.bench;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tma.blackjack.BJController;
+import tma.blackjack.output.*;
+import tma.blackjack.table.*;
+
+/**
+ * Benchmarks a bot-vs-dealer table with echo on, rendering through each kind
+ * of OutputSink. Output goes to /dev/null through a stream set up like
+ * System.out (8K buffer, flushed on every line), so the console sink pays
+ * the same write calls it would at a terminal, minus the terminal itself.
+ * One operation is a table playing ROUNDS rounds.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoBenchmark {
+	private static final int ROUNDS = 1000;
+
+	@Param({"console", "buffered", "async", "null"})
+	public String sink;
+
+	private PrintStream devNull;
+	private OutputSink output;
+
+	@Setup
+	public void setup() throws IOException {
+		devNull = new PrintStream(new BufferedOutputStream(new FileOutputStream("/dev/null"), 8192), true);
+		switch (sink) {
+		case "console": output = new ConsoleSink(devNull); break;
+		case "buffered": output = new BufferedSink(devNull, BufferedSink.DEFAULT_BATCH); break;
+		case "async": output = new AsyncSink(devNull); break;
+		default: output = new NullSink();
+		}
+		BJController.setOutput(output);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		output.flush();
+		if (output instanceof Closeable) ((Closeable) output).close();
+		BJController.setOutput(new ConsoleSink());
+		devNull.close();
+	}
+
+	@Benchmark
+	public long playTable() {
+		Table table = new Table("Bench", 6, true);
+		table.addSeat("AI", new StrategyMoveSource());
+		table.setRoundLimit(ROUNDS);
+		table.run();
+		return table.getRounds();
+	}
+}
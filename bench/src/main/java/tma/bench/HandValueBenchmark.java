@@ -0,0 +1,54 @@
+package tma.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tma.blackjack.BJController;
+import tma.deck.*;
+
+/**
+ * Benchmarks BJController.handValue for hands of 2 to 7 cards. A fixed set
+ * of random hands is scored in turn, so branch prediction cannot learn a
+ * single hand.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandValueBenchmark {
+	private static final int HANDS = 1024;
+
+	@Param({"2", "3", "4", "5", "6", "7"})
+	public int cards;
+
+	private ArrayList<ArrayList<Card>> hands;
+	private int next;
+
+	@Setup
+	public void setup() {
+		Deck deck = new Deck(8);
+		hands = new ArrayList<ArrayList<Card>>();
+		for (int i = 0; i < HANDS; i++) {
+			ArrayList<Card> hand = new ArrayList<Card>();
+			for (int j = 0; j < cards; j++) {
+				if (deck.isEmpty()) deck.suffleDeck();
+				Card card = deck.drawCard();
+				deck.burnCard(card);
+				hand.add(card);
+			}
+			hands.add(hand);
+		}
+	}
+
+	@Benchmark
+	public int[] handValue() {
+		next = (next + 1) & (HANDS - 1);
+		return BJController.handValue(hands.get(next));
+	}
+}
@@ -0,0 +1,66 @@
+package tma.bench;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tma.blackjack.BJStrategy;
+import tma.blackjack.log.HandLog;
+import tma.blackjack.sim.*;
+
+/**
+ * Benchmarks one full round of blackjack as played by the Simulator: deal,
+ * AI seats playing through BJController.executeMove, dealer play, scoring and
+ * burning the hands. Reshuffles happen whenever the shoe runs low, as they
+ * would in a real run. With log on, every round is also written to a HandLog
+ * in a temporary directory, to measure the cost of the hand history.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoundBenchmark {
+	@Param({"1", "7"})
+	public int seats;
+
+	@Param({"false", "true"})
+	public boolean log;
+
+	private Simulator simulator;
+	private SimulationResult result;
+	private Path logDir;
+	private HandLog handLog;
+
+	@Setup
+	public void setup() throws IOException {
+		simulator = new Simulator(seats, 6, BJStrategy.getInstance());
+		result = new SimulationResult();
+		if (log) {
+			logDir = Files.createTempDirectory("handlog");
+			handLog = new HandLog(logDir, "bench");
+			simulator.setLog(handLog);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (handLog == null) return;
+		handLog.close();
+		try (DirectoryStream<Path> segments = Files.newDirectoryStream(logDir)) {
+			for (Path segment : segments) Files.delete(segment);
+		}
+		Files.delete(logDir);
+	}
+
+	@Benchmark
+	public SimulationResult playRound() {
+		simulator.playRound(result);
+		return result;
+	}
+}
@@ -0,0 +1,73 @@
+package tma.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tma.blackjack.*;
+import tma.deck.*;
+
+/**
+ * Benchmarks BJStrategy.getRecommendedMove, both the lookup from a player's
+ * running totals (used by the AI) and the lookup from a list of cards, plus
+ * the player lookup with count deviations applied. Runs over a fixed set of
+ * random two card hands, dealer up cards and true counts.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StrategyBenchmark {
+	private static final int HANDS = 1024;
+
+	private BJStrategy strategy;
+	private BJPlayer[] players;
+	private Card[] upCards;
+	private int[] upValues;
+	private int[] trueCounts;
+	private int next;
+
+	@Setup
+	public void setup() {
+		strategy = BJStrategy.getInstance();
+		Deck deck = new Deck(8);
+		players = new BJPlayer[HANDS];
+		upCards = new Card[HANDS];
+		upValues = new int[HANDS];
+		trueCounts = new int[HANDS];
+		for (int i = 0; i < HANDS; i++) {
+			if (deck.activeCount() < 3) deck.suffleDeck();
+			players[i] = new BJPlayer("Seat", false);
+			BJController.dealCardToPlayer(deck.drawCard(), players[i], 0);
+			BJController.dealCardToPlayer(deck.drawCard(), players[i], 0);
+			upCards[i] = deck.drawCard();
+			upValues[i] = BJController.cardValue(upCards[i]);
+			trueCounts[i] = (i % 13) - 6;
+			deck.burnCard(upCards[i]);
+			deck.burnHand(new ArrayList<Card>(players[i].getHand(0)));
+		}
+	}
+
+	@Benchmark
+	public Move fromPlayer() {
+		next = (next + 1) & (HANDS - 1);
+		return strategy.getRecommendedMove(players[next], 0, upValues[next]);
+	}
+
+	@Benchmark
+	public Move withCount() {
+		next = (next + 1) & (HANDS - 1);
+		return strategy.getRecommendedMove(players[next], 0, upValues[next], trueCounts[next]);
+	}
+
+	@Benchmark
+	public Move fromHand() {
+		next = (next + 1) & (HANDS - 1);
+		return strategy.getRecommendedMove(players[next].getHand(0), upCards[next]);
+	}
+}
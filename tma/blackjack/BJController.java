@@ -1,4 +1,6 @@
 package tma.blackjack;
+import tma.blackjack.log.HandRecord;
+import tma.blackjack.output.*;
 import tma.deck.*;
 
 import java.util.*;
@@ -8,15 +10,47 @@ import java.util.*;
  * Blackjack game. All methods are static to avoid unnecessary instantiation of 
  * a BJController object. Used in several areas of Blackjack game, so consider
  * all significant changes carefully.
+ * <br><br>
+ * BJController holds no state of its own, so it can be used from several
+ * threads at once, as long as each thread works with its own players and Deck.
+ * House rules (dealer on soft 17, doubling after splits, split limits,
+ * surrender) come from a RuleSet; the methods that do not take one play by
+ * RuleSet.DEFAULT.
+ * <br><br>
+ * All CLI rendering goes to the OutputSink set with setOutput, the console by
+ * default. A sink that is not enabled (NullSink) skips rendering entirely.
  * 
  * @author Tyler Ambroziak
  * @version 1.0
  */
 public class BJController {
 
+	// blackjack value of every card code, built once
+	private static final int[] CARD_VALUES = buildCardValues();
+	// one Scanner for the console, so buffered input is not lost between moves
+	private static final Scanner STD_IN = new Scanner(System.in);
+	// where CLI rendering goes
+	private static volatile OutputSink output = new ConsoleSink();
+
 	//
 	// Utility methods
 	//
+
+	/**
+	 * Sets where CLI rendering goes, for every table in the process
+	 * @param sink Sink to render to
+	 */
+	public static void setOutput(OutputSink sink) {
+		output = sink;
+	}
+
+	/**
+	 * Where CLI rendering goes
+	 * @return Current sink
+	 */
+	public static OutputSink getOutput() {
+		return output;
+	}
 	
 	/**
 	 * Returns the value of a Card, as used in blackjack. Aces are returned as 11,
@@ -25,22 +59,17 @@ public class BJController {
 	 * @return int value of card
 	 */
 	public static int cardValue(Card card) {
-		int ret;
-		switch (card.getRank()) {
-		case Ace: 
-			ret = 11; 
-			break;
-		case Ten: 
-		case Jack:
-		case Queen: 
-		case King: 
-			ret = 10; 
-			break;
-		default: 
-			ret = card.getRank().ordinal();
-		}
+		return CARD_VALUES[card.getCode()];
+	}
 
-		return ret;
+	/**
+	 * Returns the blackjack value of a card code. Same values as 
+	 * cardValue(Card), looked up from a precomputed table.
+	 * @param code Card code (0-51)
+	 * @return int value of card
+	 */
+	public static int cardValue(int code) {
+		return CARD_VALUES[code];
 	}
 
 	/**
@@ -59,39 +88,44 @@ public class BJController {
 	 * @param hand Hand to evalue
 	 * @return int array containing hand score and soft ace flag
 	 */
-	@SuppressWarnings("unchecked")
 	public static int[] handValue(ArrayList<Card> hand) {
-		int[] score = new int[2];
+		return handValue(hand, new int[2]);
+	}
+
+	/**
+	 * Same as handValue(ArrayList), but fills in an array the caller owns, so
+	 * a caller scoring many hands can reuse one array instead of allocating
+	 * one per hand
+	 * @param hand Hand to evaluate
+	 * @param score Array of at least 2 to put the score and soft ace flag in
+	 * @return score
+	 */
+	public static int[] handValue(ArrayList<Card> hand, int[] score) {
 		if (hand == null) {
 			score[0] = score[1] = 0;
 			return score;
 		}
-		int val, sum, aceSum;
-		Collections.sort(hand);
+		int val, sum, aces;
 		sum = 0;
-		aceSum = 0;
-	
-		for (Card card : hand) {
-			val = BJController.cardValue(card);
-			if (val < 11) sum = sum + val;
+		aces = 0;
 	
-			// handle Aces
-			else {
-				// if adding 11 does not bring it over 21, add 11 to aceSum
-				if (sum + val < 22) aceSum = aceSum + 11;
-				// else add 1 to ace sum
-				else aceSum = aceSum + 1;
-				// if aceSum + sum > 21 && aceSum > 10 aceSum = aceSum - 10;
+		// count every Ace as 1 to start with
+		for (int i = 0; i < hand.size(); i++) {
+			val = BJController.cardValue(hand.get(i));
+			if (val == 11) {
+				aces++;
+				val = 1;
 			}
+			sum = sum + val;
+		}
+		// at most one Ace can ever count as 11
+		if (aces > 0 && sum + 10 < 22) {
+			score[0] = sum + 10;	// hand score
+			score[1] = 1;			// soft ace flag
+		} else {
+			score[0] = sum;
+			score[1] = 0;
 		}
-		// check ace values. adjust down if we have a high ace and are over 21
-		if ((aceSum + sum) > 21 && (aceSum > 10)) aceSum = aceSum - 10;
-	
-		// add calculated value of aces
-		sum = sum + aceSum;
-		score[0] = sum;					// hand score
-		if (aceSum > 10) score[1] = 1;	// soft ace flag
-		else score[1] = 0;
 	
 		return score;
 	}
@@ -103,7 +137,7 @@ public class BJController {
 	 * @param hand Hand that the card should be added to
 	 */
 	public static void dealCardToPlayer(Card card, BJPlayer player, int hand) {
-		player.getHand(hand).add(card);
+		player.addCard(hand, card);
 	}
 
 	
@@ -111,7 +145,8 @@ public class BJController {
 	 * Executes a given move for a hand and recalculates the new hand's score.
 	 * Based on the new hand's score, if there is a required move, it also executes
 	 * that. In this way, it terminates human player's hands when they must be,
-	 * and recursively executes dealer's moves until dealer must stop..
+	 * and keeps executing dealer's moves until dealer must stop. Required moves
+	 * are made in a loop, so a long dealer hand takes no extra stack.
 	 * 
 	 * @param player Player to execute move for
 	 * @param hand Hand to execute move on
@@ -120,11 +155,25 @@ public class BJController {
 	 * @return True when done executing move (and subsequent required moves)
 	 */
 	public static boolean executeMove(BJPlayer player, int hand, Move move, Deck deck) {
-		if (move == null) return true;
-		performMove(player, hand, move, deck);
-		player.calculateHandScore(hand);
-		Move nextMove = getRequiredMove(player, hand);
-		return executeMove(player, hand, nextMove, deck);
+		return executeMove(player, hand, move, deck, RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Same as executeMove(BJPlayer, int, Move, Deck), with the dealer playing
+	 * by a given set of rules
+	 * @param player Player to execute move for
+	 * @param hand Hand to execute move on
+	 * @param move Move to execute on hand
+	 * @param deck Desk to draw cards from
+	 * @param rules Rules of the game
+	 * @return True when done executing move (and subsequent required moves)
+	 */
+	public static boolean executeMove(BJPlayer player, int hand, Move move, Deck deck, RuleSet rules) {
+		while (move != null) {
+			performMove(player, hand, move, deck);
+			move = getRequiredMove(player, hand, rules);
+		}
+		return true;
 	}
 
 	/**
@@ -138,13 +187,27 @@ public class BJController {
 	 * @return Move, if required Move exists for Hand/Player
 	 */
 	public static Move getRequiredMove(BJPlayer player, int hand) {
+		return getRequiredMove(player, hand, RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Same as getRequiredMove(BJPlayer, int), with the dealer hitting or
+	 * standing on soft 17 as the rules say. A hand that was doubled or
+	 * surrendered is done, and keeps that as its last move.
+	 * 
+	 * @param player Player to evaluate
+	 * @param hand Hand to evaluate for required move
+	 * @param rules Rules of the game
+	 * @return Move, if required Move exists for Hand/Player
+	 */
+	public static Move getRequiredMove(BJPlayer player, int hand, RuleSet rules) {
 		Move previousMove = player.getLastMove(hand);
-		player.calculateHandScore(hand);
-		if (previousMove == Move.Stay) return null;
+		if (previousMove == Move.Stay || previousMove == Move.Double || 
+				previousMove == Move.Surrender) return null;
 		if (player.isDealer()) {
-			// if dealer, hit on < 17 as well as soft 17
-			if ((player.getHandScore(hand) < 17) || 
-					((player.getHandScore(hand) == 17) && (player.hasSoftAce(hand)))) {
+			// if dealer, hit on < 17, and on soft 17 if the rules say so
+			if ((player.getHandScore(hand) < 17) || ((player.getHandScore(hand) == 17) && 
+					(player.hasSoftAce(hand)) && rules.hitsSoft17())) {
 				return Move.Hit;
 			} else return Move.Stay;
 		} else if (player.getHandScore(hand) >= 21) return Move.Stay;
@@ -152,6 +215,53 @@ public class BJController {
 		return null;
 	}
 
+	/**
+	 * What a finished hand pays, once the dealer is done. A win pays the
+	 * wager, a blackjack pays the rules' payout (rounded down to a whole chip),
+	 * a push pays nothing, and a surrender gets half the wager back (the house
+	 * keeps the odd chip). Losses come out negative.
+	 * 
+	 * @param player Seated player
+	 * @param hand Player's hand
+	 * @param outcome How the hand ended (HandRecord.outcomeOf)
+	 * @param rules Rules of the game
+	 * @return Chips won, or lost if negative
+	 */
+	public static int payout(BJPlayer player, int hand, int outcome, RuleSet rules) {
+		int wager = player.getWager(hand);
+		switch (outcome) {
+		case HandRecord.BLACKJACK:
+			return (int) Math.floor(wager * rules.getBlackjackPayout());
+		case HandRecord.WIN:
+			return wager;
+		case HandRecord.PUSH:
+			return 0;
+		case HandRecord.SURRENDER:
+			return -(wager - wager / 2);
+		default:
+			return -wager;
+		}
+	}
+
+	/**
+	 * Settles a player's round against the dealer: pays every hand and adds
+	 * the total to the player's winnings. Call once the dealer is done, and
+	 * before the hands are burned.
+	 * 
+	 * @param player Seated player
+	 * @param dealer Dealer
+	 * @param rules Rules of the game
+	 * @return Chips won over all of the player's hands, or lost if negative
+	 */
+	public static int settle(BJPlayer player, BJPlayer dealer, RuleSet rules) {
+		int net = 0;
+		for (int i = 0; i < player.numActiveHands(); i++) {
+			net = net + payout(player, i, HandRecord.outcomeOf(player, i, dealer), rules);
+		}
+		player.addWinnings(net);
+		return net;
+	}
+
 	/**
 	 * Determine if a given move can be performed by player on a given hand
 	 * 
@@ -161,6 +271,23 @@ public class BJController {
 	 * @return True if move is legal given the hand, False if it is not
 	 */
 	public static boolean isLegalMove(BJPlayer player, int hand, Move move) {
+		return isLegalMove(player, hand, move, RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Determine if a given move can be performed by player on a given hand,
+	 * under a given set of rules. On top of what the hand allows, a split 
+	 * hand can only be doubled with double after split, a seat cannot split
+	 * past the split limit, and surrender is only allowed on the first two
+	 * cards of a hand that was never split.
+	 * 
+	 * @param player Player to evaluate
+	 * @param hand Hand to evaluate
+	 * @param move Move to evaluate legality of
+	 * @param rules Rules of the game
+	 * @return True if move is legal given the hand, False if it is not
+	 */
+	public static boolean isLegalMove(BJPlayer player, int hand, Move move, RuleSet rules) {
 		switch(move) {
 		case Quit:
 		case Stay: 
@@ -168,9 +295,13 @@ public class BJController {
 		case Hit:
 			return player.getHandScore(hand) < 21;
 		case Double: 
-			return player.canDoubleDown(hand);
+			return player.canDoubleDown(hand) && 
+					(rules.allowsDoubleAfterSplit() || player.numActiveHands() == 1);
 		case Split: 
-			return player.canSplit(hand);
+			return player.canSplit(hand) && player.numActiveHands() < rules.getMaxHands();
+		case Surrender:
+			return rules.allowsSurrender() && player.numActiveHands() == 1 &&
+					player.getHand(hand).size() == 2 && !player.isDealer();
 		default: 
 			return false;
 		}
@@ -181,7 +312,7 @@ public class BJController {
 	 * <ul>
 	 * <li>Has Blackjack (don't allow hit on blackjack)</li>
 	 * <li>Busted (score > 21)</li>
-	 * <li>Chose either to Stay or Double Down</li>
+	 * <li>Chose to Stay, Double Down or Surrender</li>
 	 * </ul>
 	 * @param player Player to evaluate
 	 * @param hand Hand to evaluate
@@ -193,7 +324,8 @@ public class BJController {
 		player.didBust(hand) || 
 		player.hasBlackjack(hand) ||
 		player.getLastMove(hand).equals(Move.Stay) ||
-		player.getLastMove(hand).equals(Move.Double);
+		player.getLastMove(hand).equals(Move.Double) ||
+		player.getLastMove(hand).equals(Move.Surrender);
 	}
 
 	/**
@@ -204,9 +336,11 @@ public class BJController {
 	 * hand. In that case, we only want to display one card.
 	 */
 	public static void displayHand(ArrayList<Card> hand, boolean isDealer) {
+		OutputSink out = output;
+		if (!out.isEnabled()) return;
 		for (int i = 0; i < hand.size(); i++) {
 			if (i > 0 && isDealer) break;
-			System.out.println("\t" + hand.get(i).toString());
+			out.println("\t" + hand.get(i).toString());
 		}
 	}
 
@@ -217,18 +351,19 @@ public class BJController {
 	 * @param i int indicating hand to print
 	 */
 	public static void displayHandForPlayer(BJPlayer player, int i) {
+		OutputSink out = output;
+		if (!out.isEnabled()) return;
 
 		// calculate score and score string
 		String score = "";
-		player.calculateHandScore(i);
 		if (player.hasSoftAce(i)) score = "Soft ";
 		score = score + player.getHandScore(i);
 		if (score.equalsIgnoreCase("Soft 21")) score = "Blackjack!";
 
 		//print player (and score if appropriate)
-		System.out.print(playerHandHeader(player,i));
-		if (!player.isDealer()) System.out.print(score);
-		System.out.println();
+		out.print(playerHandHeader(player,i));
+		if (!player.isDealer()) out.print(score);
+		out.println();
 
 		// display the hand
 		if (player.isDealer() && player.hasBlackjack(i)) {
@@ -236,7 +371,7 @@ public class BJController {
 		}
 		else BJController.displayHand(player.getHand(i),player.isDealer());
 
-		System.out.println();
+		out.println();
 	}
 
 	/**
@@ -246,13 +381,30 @@ public class BJController {
 	 * @param hand int indicating which of the player's hand scores to print
 	 */
 	public static void printFinalScoreForHand(BJPlayer player, int hand) {
+		OutputSink out = output;
+		if (!out.isEnabled()) return;
 		String scoreStr = player.getName() + "'s ";
 		if (!player.isDealer()) scoreStr = scoreStr + "Hand " + (hand+1);
 		scoreStr = scoreStr + " score: " + player.getHandScore(hand);
-		System.out.println(scoreStr);
+		out.println(scoreStr);
 		
 	}
 
+	/**
+	 * Prints the bust message for a player's hand. Used by CLI.
+	 * 
+	 * @param player Player
+	 * @param hand int indicating which of the player's hands busted
+	 */
+	public static void printBustForHand(BJPlayer player, int hand) {
+		OutputSink out = output;
+		if (!out.isEnabled()) return;
+		String str = player.getName() + " busted on hand ";
+		if (!player.isDealer()) str = str + (hand+1) + " ";
+		str = str + "with a score of " + player.getHandScore(hand);
+		out.println(str);
+	}
+
 	/**
 	 * Parses CLI input, determines move to execute, and executes move
 	 * @param player Player making the move
@@ -266,21 +418,30 @@ public class BJController {
 		return executeMove(player, hand, move, deck);
 	}
 
-	
-	//
-	// Private helper methods
-	//
-	
-	
 	/**
-	 * Used to gather and validate player's move selection
+	 * Used to gather and validate player's move selection. Blocks on the 
+	 * console until a legal move (or Quit) is entered. If the console has no
+	 * more input, the player quits.
+	 * 
+	 * @param player Player to select move for
+	 * @param hand Hand that move should apply to
+	 * @return Move 
+	 */
+	public static Move parseInputFor(BJPlayer player, int hand) {
+		return parseInputFor(player, hand, RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Same as parseInputFor(BJPlayer, int), checking moves against a given 
+	 * set of rules. Surrender is only offered if the rules allow it.
 	 * 
 	 * @param player Player to select move for
 	 * @param hand Hand that move should apply to
+	 * @param rules Rules of the game
 	 * @return Move 
 	 */
-	private static Move parseInputFor(BJPlayer player, int hand) {
-		Scanner stdIn = new Scanner(System.in);
+	public static Move parseInputFor(BJPlayer player, int hand, RuleSet rules) {
+		Scanner stdIn = STD_IN;
 		boolean isValid = false;
 		String input = "";
 		Move move = null;
@@ -289,26 +450,29 @@ public class BJController {
 			// construct prompt
 			String prompt = player.getName() + ": ";
 			for (Move m : Move.values()) {
+				if (m == Move.Surrender && !rules.allowsSurrender()) continue;
 				prompt = prompt + m.name() + " (" + (m.ordinal() + 1) + "), ";
 			}
 			prompt = prompt.substring(0, (prompt.length() - 2)) + "? ";
-			System.out.print(prompt);
+			output.print(prompt);
+			output.flush();
 			input = null;
 			
 			//gather input
+			if (!stdIn.hasNextLine()) return Move.Quit;
 			try {
 				input = stdIn.nextLine();
 				if (input.length() == 0)  isValid = false;
 				else {
 					move = Move.convert(Integer.parseInt(input) - 1);
-					isValid = isLegalMove(player, hand, move);
+					isValid = isLegalMove(player, hand, move, rules);
 				}
 			// if input is not a number, try matching it to Move by String value
 			} catch (NumberFormatException ex) {
 				String str = input.substring(0, 1).toUpperCase() + input.substring(1).toLowerCase();
 				try {
 					move = Move.valueOf(str);
-					isValid = isLegalMove(player, hand, move);
+					isValid = isLegalMove(player, hand, move, rules);
 				} catch (Exception exception) {
 					isValid = false;
 				}
@@ -318,13 +482,18 @@ public class BJController {
 				move = null; input = null; isValid = false;
 			}
 
-			if (!isValid) System.out.println("Invalid move, please try again");
+			if (!isValid) output.println("Invalid move, please try again");
 
 		}
 		return move;
 
 	}
-
+	
+	//
+	// Private helper methods
+	//
+	
+	
 	/**
 	 * Performs actions for a given move. Assumes Move has been validated, and
 	 * is a legal move.
@@ -338,31 +507,47 @@ public class BJController {
 	private static boolean performMove(BJPlayer player, int hand, Move move, Deck deck) {
 		switch (move) {
 		case Stay:
+		case Surrender:
 			player.setLastMove(move, hand);
-			player.calculateHandScore(hand);
 			return true;
 		case Double: 
-			// must add code to increase wager
-			// otherwise, same as hit
+			// double the wager, otherwise same as hit
+			player.setWager(hand, player.getWager(hand) * 2);
+			dealCardToPlayer(deck.drawCard(), player, hand);
+			player.setLastMove(move, hand);
+			return true;
 		case Hit:
 			dealCardToPlayer(deck.drawCard(), player, hand);
 			player.setLastMove(move, hand);
-			player.calculateHandScore(hand);
 			return true;
 		case Split:
 			int next = player.nextHand();
 			player.splitCards(hand, next);
+			player.setWager(next, player.getWager(hand));
 			player.setLastMove(move, hand);
 			dealCardToPlayer(deck.drawCard(), player, hand);
 			dealCardToPlayer(deck.drawCard(), player, next);
-			player.calculateHandScore(hand);
-			player.calculateHandScore(next);
 			return true;
 		}
 		return false;
 
 	}
 
+	/**
+	 * Builds the card value table used by cardValue. Aces are 11, face cards
+	 * are 10, and all other cards are face value.
+	 * @return int array of blackjack values, indexed by card code
+	 */
+	private static int[] buildCardValues() {
+		int[] values = new int[Card.PACK_SIZE];
+		for (int code = 0; code < values.length; code++) {
+			int rank = Card.rankOf(code);
+			if (rank == 1) values[code] = 11;
+			else values[code] = Math.min(rank, 10);
+		}
+		return values;
+	}
+
 	/**
 	 * Print header for a given hand. Used by CLI. Header can be any of the
 	 * following:
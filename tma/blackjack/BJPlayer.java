@@ -6,20 +6,43 @@ import tma.deck.*;
  * BJPlayer class contains infastructure that describes a Blackjack player, that
  * player's hands, their contents, the player's winnings, and that player's most
  * recent move. 
+ * <br><br>
+ * Every round starts with the player's bet on their first hand. Doubling
+ * doubles a hand's wager, and a split hand gets the same wager as the hand it
+ * was split from (see BJController.performMove). Once a round is over,
+ * BJController.settle pays each hand and adds the result to the winnings.
+ * <br><br>
+ * A player is reused from round to round: hand lists, running scores, wagers
+ * and last moves live in arrays that only ever grow (when a split needs more
+ * hands than any round before it did), so once they are big enough, playing
+ * and burning a round allocates nothing.
  * 
  * @author Tyler Ambroziak
  * @version 1.0
  *
  */
 public class BJPlayer {
+	// hands made up front. Splits are unlimited, so long chains of split tens
+	// at high counts do go past 8 hands; past 16 is rare enough to grow for
+	private static final int INITIAL_HANDS = 16;
+	// cards each hand list has room for up front
+	private static final int INITIAL_CARDS = 12;
+	/** Bet a player starts with; 3:2 and 6:5 blackjacks pay it in whole chips */
+	public static final int DEFAULT_BET = 10;
+	/** Winnings a player starts with */
+	public static final int DEFAULT_BANKROLL = 500;
 	private String name;
 	private boolean isDealer;
-	private int winnings;
+	private long winnings;
+	private int bet;
+	// every hand list ever used; the first handCount are in play
 	private ArrayList<ArrayList<Card>> hands;
-	private ArrayList<Integer> handScore;
-	private ArrayList<Integer> handWager;
-	private ArrayList<Boolean> softAce;
-	private ArrayList<Move> lastMove;
+	private int handCount;
+	// running totals per hand, aces counted as 1
+	private int[] hardTotal;
+	private int[] aceCount;
+	private int[] handWager;
+	private Move[] lastMove;
 	
 	/**
 	 * Creates a blackjack player with a name and dealer flag (if player is the
@@ -29,13 +52,16 @@ public class BJPlayer {
 	 */
 	public BJPlayer(String playerName, boolean dealerFlag) {
 		name = playerName;
-		winnings = 500;
+		winnings = DEFAULT_BANKROLL;
+		bet = DEFAULT_BET;
 		isDealer = dealerFlag;
 		hands = new ArrayList<ArrayList<Card>>();
-		handScore = new ArrayList<Integer>();
-		handWager = new ArrayList<Integer>();
-		softAce = new ArrayList<Boolean>();
-		lastMove = new ArrayList<Move>();
+		hardTotal = new int[INITIAL_HANDS];
+		aceCount = new int[INITIAL_HANDS];
+		handWager = new int[INITIAL_HANDS];
+		lastMove = new Move[INITIAL_HANDS];
+		for (int i = 0; i < INITIAL_HANDS; i++) hands.add(new ArrayList<Card>(INITIAL_CARDS));
+		handCount = 1;
 		reset();
 	}
 	
@@ -65,28 +91,55 @@ public class BJPlayer {
 	}
 	
 	/**
-	 * 
-	 * @return
+	 * Clears all of the player's hands for the next round, and returns the
+	 * cards that were in them. Allocates a new list every time; the game loops
+	 * use burnCards(Deck) instead.
+	 * @return Cards from every hand
 	 */
 	public ArrayList<Card> burnCards() {
 		ArrayList<Card> burnCards = new ArrayList<Card>();
 
-		for (ArrayList<Card> hand: hands) {
-			burnCards.addAll(hand);
-			hand.clear();
+		for (int i = 0; i < handCount; i++) {
+			burnCards.addAll(hands.get(i));
 		}
 		reset();
 		
 		return burnCards;
 	}
 	
+	/**
+	 * Burns the cards from all of the player's hands straight to a deck's burn
+	 * pile, and clears the hands for the next round. Allocates nothing.
+	 * @param deck Deck the cards were drawn from
+	 */
+	public void burnCards(Deck deck) {
+		for (int i = 0; i < handCount; i++) {
+			ArrayList<Card> hand = hands.get(i);
+			for (int j = 0; j < hand.size(); j++) deck.burnCard(hand.get(j));
+		}
+		reset();
+	}
+	
+	/**
+	 * Adds a card to one of the player's hands, and updates the hand's running
+	 * score. Cards should always be added through this method (or 
+	 * BJController.dealCardToPlayer) rather than to getHand() directly, or the
+	 * hand's score will be out of date.
+	 * @param hand Position of hand to add card to
+	 * @param card Card to add
+	 */
+	public void addCard(int hand, Card card) {
+		getHand(hand).add(card);
+		countCard(hand, BJController.cardValue(card), 1);
+	}
+	
 	/**
 	 * Returns a hand at a given index
 	 * @param hand Position of hand to return
 	 * @return Hand at given position
 	 */
 	public ArrayList<Card> getHand(int hand) {
-		return hands.get(hand);
+		return hands.get(Objects.checkIndex(hand, handCount));
 	}
 	
 	/**
@@ -95,7 +148,7 @@ public class BJPlayer {
 	 * @return Soft ace flag for given hand
 	 */
 	public boolean hasSoftAce(int hand) {
-		return softAce.get(hand);
+		return aceCount[hand] > 0 && hardTotal[hand] < 12;
 	}
 	
 	/**
@@ -104,24 +157,66 @@ public class BJPlayer {
 	 * @return Score of hand at give position
 	 */
 	public int getHandScore(int hand) {
-		return handScore.get(hand);
+		if (hasSoftAce(hand)) return hardTotal[hand] + 10;
+		return hardTotal[hand];
 	}
 	
 	/**
-	 * Player's winnings. Not yet in use.
+	 * Player's winnings: the starting bankroll, plus or minus every round
+	 * settled since
 	 * @return player's winnings
 	 */
-	public int getWinnings() {
+	public long getWinnings() {
 		return winnings;
 	}
 	
 	/**
-	 * Change winnings by passed in amount. Not yet in use.
+	 * Change winnings by passed in amount. BJController.settle calls this
+	 * with the result of each round.
 	 * @param amount Amount to change winnings by
 	 */
-	public void addWinnings(int amount) {
+	public void addWinnings(long amount) {
 		winnings = winnings + amount;
 	}
+
+	/**
+	 * Bet the player makes at the start of each round
+	 * @return Bet, in chips
+	 */
+	public int getBet() {
+		return bet;
+	}
+
+	/**
+	 * Sets the bet the player makes at the start of each round. Between
+	 * rounds it takes effect at once; a round in play keeps its wagers, and
+	 * the new bet starts with the next one.
+	 * @param amount Bet, in chips
+	 * @throws IllegalArgumentException if the bet is not positive
+	 */
+	public void setBet(int amount) {
+		if (amount <= 0) throw new IllegalArgumentException("Bet must be positive: " + amount);
+		bet = amount;
+		if (handCount == 1 && hands.get(0).isEmpty()) handWager[0] = bet;
+	}
+
+	/**
+	 * Chips riding on a hand
+	 * @param hand Position of hand
+	 * @return Wager on hand
+	 */
+	public int getWager(int hand) {
+		return handWager[Objects.checkIndex(hand, handCount)];
+	}
+
+	/**
+	 * Sets the chips riding on a hand, e.g. when it is doubled or split
+	 * @param hand Position of hand
+	 * @param amount Wager on hand
+	 */
+	public void setWager(int hand, int amount) {
+		handWager[Objects.checkIndex(hand, handCount)] = amount;
+	}
 	
 	/**
 	 * Get player's name
@@ -131,24 +226,12 @@ public class BJPlayer {
 		return name;
 	}
 	
-	/**
-	 * Calculate hand score and soft ace flag for a given hand
-	 * @param hand Position of hand to score
-	 */
-	public void calculateHandScore(int hand) {
-		int [] score = null;
-		score = BJController.handValue(getHand(hand));
-		
-		handScore.set(hand, score[0]);
-		softAce.set(hand, (score[1] == 1));
-	}
-	
 	/**
 	 * How many hands does a player currently have active?
 	 * @return Number of active hands
 	 */
 	public int numActiveHands() {
-		return hands.size();
+		return handCount;
 	}
 	
 	/**
@@ -170,7 +253,11 @@ public class BJPlayer {
 		if (!canSplit(from)) return false;
 		if (getHand(to).size() != 0) return false;
 		// do actual split
-		return getHand(to).add(getHand(from).remove(1));
+		Card card = getHand(from).remove(1);
+		int value = BJController.cardValue(card);
+		countCard(from, value, -1);
+		countCard(to, value, 1);
+		return getHand(to).add(card);
 	}
 	
 	/**
@@ -179,7 +266,7 @@ public class BJPlayer {
 	 * @return Last move performed for that hand
 	 */
 	public Move getLastMove(int hand) {
-		return lastMove.get(hand);
+		return lastMove[Objects.checkIndex(hand, handCount)];
 	}
 	
 	/**
@@ -188,7 +275,7 @@ public class BJPlayer {
 	 * @param hand Hand that move was performed on.
 	 */
 	public void setLastMove(Move move, int hand) {
-		lastMove.set(hand, move);
+		lastMove[Objects.checkIndex(hand, handCount)] = move;
 	}
 	
 	/**
@@ -197,52 +284,67 @@ public class BJPlayer {
 	 * @return true if player has blackjack; false otherwise
 	 */
 	public boolean hasBlackjack(int hand) {
-		return (handScore.get(hand) == 21) && (getHand(hand).size() == 2);
+		return (getHandScore(hand) == 21) && (getHand(hand).size() == 2);
 	}
 
 	/**
-	 * Did player bust? Yes, if their score is over 21.
+	 * Did player bust? Yes, if their score is over 21. Has no side effects, so
+	 * it is safe to call from simulations; the CLI prints the bust message with
+	 * BJController.printBustForHand.
 	 * @param hand Hand to evaluate
 	 * @return true if hand score > 21; false otherwise
 	 */
 	public boolean didBust(int hand) {
-		boolean didBust = (handScore.get(hand) > 21);
-		if (!didBust) return didBust;
-		String str = name + " busted on hand ";
-		if (!isDealer) str = str + (hand+1) + " ";
-		str = str + "with a score of " + handScore.get(hand);
-		if (didBust) System.out.println(str);
-		return didBust;
+		return (hardTotal[hand] > 21);
 	}
 	
 	/**
-	 * Initialize a new hand
+	 * Initialize a new hand. Reuses a hand list from an earlier round if
+	 * there is one.
 	 * 
-	 * @return Index of new hand in hands ArrayList
+	 * @return Index of new hand
 	 */
 	public int nextHand() {
-		hands.add(new ArrayList<Card>());
-		handScore.add(0);
-		handWager.add(50);
-		softAce.add(false);
-		lastMove.add(Move.Hit);
-		return hands.size() - 1;
+		int next = handCount;
+		if (next == hardTotal.length) {
+			hardTotal = Arrays.copyOf(hardTotal, next * 2);
+			aceCount = Arrays.copyOf(aceCount, next * 2);
+			handWager = Arrays.copyOf(handWager, next * 2);
+			lastMove = Arrays.copyOf(lastMove, next * 2);
+		}
+		if (next == hands.size()) hands.add(new ArrayList<Card>(INITIAL_CARDS));
+		handCount++;
+		hardTotal[next] = 0;
+		aceCount[next] = 0;
+		handWager[next] = 0;
+		lastMove[next] = Move.Hit;
+		return next;
+	}
+	
+	/**
+	 * Updates a hand's running totals when a card is added to or removed from it
+	 * @param hand Position of hand
+	 * @param value Blackjack value of the card (Aces are 11)
+	 * @param direction 1 if card was added, -1 if it was removed
+	 */
+	private void countCard(int hand, int value, int direction) {
+		if (value == 11) {
+			aceCount[hand] = aceCount[hand] + direction;
+			value = 1;
+		}
+		hardTotal[hand] = hardTotal[hand] + (value * direction);
 	}
 	
 	/**
-	 * Reset game after a round of blackjack. Clears soft ace flags, hand 
-	 * scores, wager amount, last moves, and hands
+	 * Reset game after a round of blackjack. Clears hand scores, wager amount,
+	 * last moves, and hands, keeping the hand lists for the next round
 	 */
 	private void reset() {
-		softAce.clear();
-		softAce.add(false);
-		handScore.clear();
-		handScore.add(0);
-		handWager.clear();
-		handWager.add(5);
-		lastMove.clear();
-		lastMove.add(Move.Hit);
-		hands.clear();
-		hands.add(new ArrayList<Card>());
+		for (int i = 0; i < handCount; i++) hands.get(i).clear();
+		handCount = 1;
+		hardTotal[0] = 0;
+		aceCount[0] = 0;
+		handWager[0] = bet;
+		lastMove[0] = Move.Hit;
 	}
 }
@@ -1,13 +1,26 @@
 package tma.blackjack;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.zip.CRC32;
 import tma.deck.Card;
 
 /**
  * The BJStrategy class serves as the AI for non-human players. It can also
  * be used to give tips to human players. It handles reading and parsing the
  * strategy table, detemining which table to use given a hand, etc.
+ * <br><br>
+ * Parsing the text grid is slow, so the parsed tables can be saved ahead of
+ * time in a compiled binary form (strategyGrid.bin, see StrategyCompiler).
+ * Most callers should use getInstance(), which loads the tables once per
+ * process and shares them. Lookups never change the tables, so the shared
+ * instance can be used from any number of threads.
+ * <br><br>
+ * The grid may also list count based deviations (see buildStrategyTables).
+ * These are compiled into extra copies of the table, one per true count, so a
+ * lookup with a true count is still a single table read.
  * 
  * @author Tyler Ambroziak
  *
@@ -15,22 +28,319 @@ import tma.deck.Card;
 
 public class BJStrategy {
 	
+	// hand key layout: one block of KEY_BLOCK keys per hand type
+	private static final int KEY_BLOCK = 32;
+	private static final int HARD = 0;
+	private static final int SOFT = KEY_BLOCK;
+	private static final int PAIR = 2 * KEY_BLOCK;
+	private static final int HAND_KEYS = 3 * KEY_BLOCK;
+	// dealer up card values 2 through 11
+	private static final int DEALER_VALUES = 10;
+	private static final byte NO_MOVE = -1;
+	private static final Move[] MOVES = Move.values();
+	private static final int CELLS = HAND_KEYS * DEALER_VALUES;
+	// deviation thresholds are limited to +/- MAX_COUNT
+	private static final int MAX_COUNT = 20;
+	// table # used while reading deviation lines
+	private static final int DEVIATION_TABLE = 4;
+	
+	// compiled file layout: magic, version, key count, dealer count, lowest
+	// true count, highest true count, table, crc
+	/** Default location of the text strategy grid */
+	public static final String TEXT_FILE = "strategyGrid";
+	/** Default location of the compiled strategy table */
+	public static final String COMPILED_FILE = "strategyGrid.bin";
+	/** Table numbers, as used in the text grid and by getTables */
+	public static final int ONE_ACE_TABLE = 1;
+	public static final int PAIR_TABLE = 2;
+	public static final int SUM_TABLE = 3;
+	private static final int MAGIC = 0x424A5347;	// "BJSG"
+	private static final short VERSION = 2;
+	private static final int HEADER_SIZE = 12;
+	
 	private final String FILE;
 	// char[player][dealer]
 	private char[][] oneAce;
 	private char[][] pair;
 	private char[][] sum;
+	private ArrayList<Deviation> deviations;
+	// Move ordinals, indexed by [level * CELLS + hand key * DEALER_VALUES + 
+	// dealer value - 2]. Level 0 is the basic strategy; level 1 onwards hold
+	// the table with deviations applied for true counts minCount to maxCount
+	private byte[] moves;
+	private int minCount;
+	private int maxCount;
+	private String source;
+	private long loadNanos;
 
 	/**
-	 * Default constructor. No real configuration required, and allowing a configurable
-	 * strategy grid would be difficult, and in general, not a good idea
+	 * Default constructor. Reads the standard strategy grid (strategyGrid).
+	 * Consider getInstance() instead, which only loads the grid once.
 	 */
 	public BJStrategy() {
-		FILE = "strategyGrid";
+		this(TEXT_FILE);
+	}
+	
+	/**
+	 * Reads a strategy grid from a given file. Only needed for alternate grids,
+	 * such as ones generated for house rule variants.
+	 * @param file Path of strategy grid file
+	 */
+	public BJStrategy(String file) {
+		long start = System.nanoTime();
+		FILE = file;
 		oneAce = new char[9][10];
 		pair = new char[10][10];
 		sum = new char[16][10];
+		deviations = new ArrayList<Deviation>();
+		moves = new byte[2 * CELLS];
+		Arrays.fill(moves, NO_MOVE);
+		source = FILE;
 		buildStrategyTables();
+		loadNanos = System.nanoTime() - start;
+	}
+	
+	/**
+	 * Builds a strategy from tables already in memory rather than from a file.
+	 * The tables are laid out the same way as those read from the grid 
+	 * (see getTables), and are copied. Used by tools that generate grids, 
+	 * such as StrategyOptimizer.
+	 * @param oneAce Single ace table, [non-ace card - 2][dealer value - 2]
+	 * @param pair Pair table, [card value - 2][dealer value - 2]
+	 * @param sum Sum table, [hand score - 5][dealer value - 2]
+	 */
+	public BJStrategy(char[][] oneAce, char[][] pair, char[][] sum) {
+		long start = System.nanoTime();
+		FILE = TEXT_FILE;
+		this.oneAce = copyOf(oneAce);
+		this.pair = copyOf(pair);
+		this.sum = copyOf(sum);
+		deviations = new ArrayList<Deviation>();
+		source = "memory";
+		compileTables();
+		loadNanos = System.nanoTime() - start;
+	}
+	
+	/**
+	 * Creates a strategy from an already compiled table
+	 * @param compiled Move ordinals, as produced by compileTables
+	 * @param minCount Lowest true count level in the table
+	 * @param maxCount Highest true count level in the table
+	 * @param from Where the table was loaded from
+	 */
+	private BJStrategy(byte[] compiled, int minCount, int maxCount, String from) {
+		FILE = TEXT_FILE;
+		oneAce = new char[9][10];
+		pair = new char[10][10];
+		sum = new char[16][10];
+		deviations = new ArrayList<Deviation>();
+		moves = compiled;
+		this.minCount = minCount;
+		this.maxCount = maxCount;
+		source = from;
+		decompileTables();
+	}
+	
+	/**
+	 * Returns the shared strategy, loading it the first time it is asked for.
+	 * The compiled table is used if it is at least as new as the text grid;
+	 * otherwise the text grid is parsed. Loading never writes anything; run
+	 * StrategyCompiler to (re)write the compiled table.
+	 * @return Shared BJStrategy
+	 */
+	public static BJStrategy getInstance() {
+		return Shared.INSTANCE;
+	}
+	
+	/**
+	 * Copies of the char tables read from the text grid, in table order: 
+	 * single aces, pairs, sums (see the constructor that takes them). A 
+	 * strategy loaded from a compiled table rebuilds them from its basic
+	 * strategy level.
+	 * @return {oneAce, pair, sum}
+	 */
+	public char[][][] getTables() {
+		return new char[][][] { copyOf(oneAce), copyOf(pair), copyOf(sum) };
+	}
+	
+	/**
+	 * Writes the char tables (and any deviations) in the text grid format read
+	 * by buildStrategyTables, so the result can be loaded like strategyGrid.
+	 * A strategy loaded from a compiled table has no deviation lines to
+	 * write, so only its basic strategy is written.
+	 * @param out Stream to write to
+	 * @param comment Comment to put at the top of the file, may be null
+	 */
+	public void writeGrid(PrintStream out, String comment) {
+		out.println("//");
+		out.println("//\tBlack Jack Strategy Grid");
+		out.println("//");
+		if (comment != null) {
+			for (String line : comment.split("\n")) out.println("// " + line);
+			out.println("//");
+		}
+		out.println(";;dealer showing this");
+		out.println(joinRange(2, 11));
+		out.println(";#table 1: single aces (non-ace card)");
+		out.println(joinRange(oneAce.length + 1, 2));
+		for (int p = oneAce.length - 1; p >= 0; p--) {
+			out.println("//A-" + (p + 2));
+			out.println(joinRow(oneAce[p]));
+		}
+		out.println(";#table 2: pairs");
+		out.println(joinRange(pair.length + 1, 2));
+		for (int p = pair.length - 1; p >= 0; p--) {
+			String card = (p == 9) ? "A" : String.valueOf(p + 2);
+			out.println("//" + card + "-" + card);
+			out.println(joinRow(pair[p]));
+		}
+		out.println(";#table 3: sums");
+		out.println(joinRange(sum.length + 4, 5));
+		for (int p = sum.length - 1; p >= 0; p--) {
+			out.println("//" + (p + 5));
+			out.println(joinRow(sum[p]));
+		}
+		if (!deviations.isEmpty()) {
+			out.println(";!table 4: count deviations");
+			for (Deviation dev : deviations) out.println(dev.line);
+		}
+	}
+	
+	/**
+	 * Where the tables were loaded from (text grid or compiled file)
+	 * @return File name
+	 */
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * How long it took to load the tables
+	 * @return Load time in nanoseconds
+	 */
+	public long getLoadNanos() {
+		return loadNanos;
+	}
+	
+	/**
+	 * One line description of where the tables came from and how long loading
+	 * them took. Used for startup reporting.
+	 * @return Load report
+	 */
+	public String loadReport() {
+		return String.format("Strategy loaded from %s in %.3f ms", source, loadNanos / 1e6);
+	}
+	
+	/**
+	 * Writes the compiled table in binary form: a header (magic number, format
+	 * version, # of hand keys, # of dealer values, lowest and highest true 
+	 * count level), the table itself, and a CRC32 of everything before it.
+	 * @param out Stream to write to
+	 * @throws IOException if the table cannot be written
+	 */
+	public void writeCompiled(OutputStream out) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + moves.length + 4);
+		buf.putInt(MAGIC);
+		buf.putShort(VERSION);
+		buf.putShort((short) HAND_KEYS);
+		buf.putShort((short) DEALER_VALUES);
+		buf.put((byte) minCount);
+		buf.put((byte) maxCount);
+		buf.put(moves);
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putInt((int) crc.getValue());
+		out.write(buf.array());
+	}
+	
+	/**
+	 * Reads a strategy from its compiled binary form (see writeCompiled). The
+	 * header, checksum and every move in the table are validated.
+	 * @param data Contents of a compiled strategy file
+	 * @param from Name of the file the data came from
+	 * @return BJStrategy using the compiled table
+	 * @throws IOException if the data is not a valid compiled strategy
+	 */
+	public static BJStrategy readCompiled(byte[] data, String from) throws IOException {
+		if (data.length < HEADER_SIZE + 4) throw new IOException("Compiled strategy is truncated");
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		if (buf.getInt() != MAGIC) throw new IOException("Not a compiled strategy");
+		if (buf.getShort() != VERSION) throw new IOException("Unsupported compiled strategy version");
+		if (buf.getShort() != HAND_KEYS || buf.getShort() != DEALER_VALUES) 
+			throw new IOException("Compiled strategy has wrong dimensions");
+		int min = buf.get();
+		int max = buf.get();
+		if (min < -MAX_COUNT - 1 || max > MAX_COUNT + 1 || min > max)
+			throw new IOException("Compiled strategy has invalid count levels");
+		int size = (max - min + 2) * CELLS;
+		if (data.length != HEADER_SIZE + size + 4) 
+			throw new IOException("Compiled strategy has wrong size");
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, HEADER_SIZE + size);
+		if ((int) crc.getValue() != buf.getInt(HEADER_SIZE + size)) 
+			throw new IOException("Compiled strategy checksum mismatch");
+		
+		byte[] compiled = Arrays.copyOfRange(data, HEADER_SIZE, HEADER_SIZE + size);
+		for (byte move : compiled) {
+			if (move != NO_MOVE && (move < 0 || move >= MOVES.length)) 
+				throw new IOException("Compiled strategy contains invalid move");
+		}
+		return new BJStrategy(compiled, min, max, from);
+	}
+	
+	/**
+	 * Loads the shared strategy. See getInstance.
+	 * @return Loaded strategy
+	 */
+	private static BJStrategy loadShared() {
+		long start = System.nanoTime();
+		BJStrategy strategy = null;
+		File compiled = new File(COMPILED_FILE);
+		File text = new File(TEXT_FILE);
+		
+		if (compiled.exists() && compiled.lastModified() >= text.lastModified()) {
+			try {
+				strategy = readCompiled(Files.readAllBytes(compiled.toPath()), COMPILED_FILE);
+			} catch (IOException e) {
+				System.out.println("Error loading compiled strategy table: " + e.getMessage());
+			}
+		}
+		if (strategy == null) strategy = new BJStrategy();
+		strategy.loadNanos = System.nanoTime() - start;
+		return strategy;
+	}
+	
+	/**
+	 * Checks that every cell the text grid is supposed to fill has a move.
+	 * @return True if no cells are missing
+	 */
+	boolean isComplete() {
+		for (int key = 0; key < HAND_KEYS; key++) {
+			if (!isUsedKey(key)) continue;
+			for (int d = 0; d < DEALER_VALUES; d++) {
+				if (moves[key * DEALER_VALUES + d] == NO_MOVE) return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Is a hand key one that handKey can actually return? Soft keys only cover
+	 * 13-21 and pair keys only cover 2-11.
+	 * @param key Hand key
+	 * @return True if key is used
+	 */
+	private static boolean isUsedKey(int key) {
+		if (key >= PAIR) return key - PAIR >= 2 && key - PAIR <= 11;
+		if (key >= SOFT) return key - SOFT >= 13 && key - SOFT <= 21;
+		return true;
+	}
+	
+	/**
+	 * Holder for the shared instance, so it is loaded on first use only
+	 */
+	private static class Shared {
+		static final BJStrategy INSTANCE = loadShared();
 	}
 
 	/**
@@ -43,16 +353,29 @@ public class BJStrategy {
 	 * <li>;; - dealer qualifier; next line contains the dealer's cards</li>
 	 * <li>;# - player qualifier; next line contains the player's card value. This
 	 * also implicitly signfies the start of a new table</li>
+	 * <li>;! - deviation qualifier; every data line after it is a count based
+	 * deviation rather than a row of a table</li>
 	 * </ul>
 	 * Lines without qualifiers are data that actually is read into the program.
 	 * Each int represents a card value, and each char represents a move.
 	 * <br><br>
+	 * A deviation line overrides one cell of a table when the true count is
+	 * at or above (&gt;=) or at or below (&lt;=) a threshold:
+	 * <pre>table,player,dealer,&gt;=count,move</pre>
+	 * Table and player are numbered the same way as the tables above, e.g. 
+	 * "3,16,10,&gt;=0,s" stands on 16 against a 10 at a true count of 0 or more.
+	 * Deviations are applied in file order, so a later line wins if two
+	 * apply to the same cell.
+	 * <br><br>
 	 * The chars correspond to the following moves:
 	 * <ul>
 	 * <li>h - Hit</li>
 	 * <li>s - Stay</li>
 	 * <li>p - Split</li>
 	 * <li>d - Double Down</li>
+	 * <li>r - Surrender, where the rules allow it (see RuleSet); callers
+	 * fall back to hit below 17 and stay otherwise, the same as for any move
+	 * that is not legal</li>
 	 * </ul>
 	 * 
 	 * @return True if tables build successfully, False otherwise
@@ -69,6 +392,7 @@ public class BJStrategy {
 		int pIdx, dIdx, table;
 		char temp;
 		table = pIdx = dIdx = 0;
+		deviations.clear();
 		
 		in = new File(FILE);
 		
@@ -85,6 +409,10 @@ public class BJStrategy {
 					pIdx = 0;
 					pTable = buildAuxTable(fileIn.nextLine());
 					
+				} else if (qualifier.equals(";!")) {
+					table = DEVIATION_TABLE;
+				} else if (table == DEVIATION_TABLE) {
+					deviations.add(parseDeviation(line));
 				} else {
 					// if we get here, we know we have data we want to load
 					dIdx = 0;
@@ -113,6 +441,7 @@ public class BJStrategy {
 				}
 			}
 			fileIn.close();
+			compileTables();
 		} catch (FileNotFoundException e) {
 			System.out.println("Strategy table file not found");
 			return false;
@@ -132,18 +461,14 @@ public class BJStrategy {
 	}
 
 	/**
-	 * This method looks at the passed-in hand, determines which strategy table
-	 * it should use, and returns the recommended move based on the table. The
-	 * work of choosing the table is actually done in the chooseTable method. 
-	 * <br><br>
-	 * This method also calculates the value to pass to findMove for use as a 
-	 * subscript for the lookup table. 
+	 * This method looks at the passed-in hand, works out its hand key (see
+	 * handKey), and returns the recommended move based on the tables.
 	 * <br><br>
-	 * The subscript value depends on which table is used:
+	 * Which of the strategy tables the move comes from depends on the hand:
 	 * <ul>
-	 * <li>1 - use value of the non-Ace card</li>
-	 * <li>2 - use value of either card (since they are the same)</li>
-	 * <li>3 - use the sum of all card values</li>
+	 * <li>pair table - 2 cards of the same value</li>
+	 * <li>single ace table - 2 cards, one of them an Ace</li>
+	 * <li>sum table - anything else, using the hand's score</li>
 	 * </ul>
 	 * 
 	 * @param hand The hand (ArrayList of Cards) that we should recommend a move for
@@ -151,45 +476,230 @@ public class BJStrategy {
 	 * @return Move if a table could be determined, Null otherwise
 	 */
 	public Move getRecommendedMove(ArrayList<Card> hand, Card dealer) {
-		int value,table;
+		int sum, aces, val;
+		if (hand.size() < 2) return null;
 		
-		table = chooseTable(hand);
-		if (table == 3) value = BJController.handValue(hand)[0];
-		else if (table == 2) value = BJController.cardValue(hand.get(0));
-		else if (table == 1) 
-			value = Math.min(BJController.cardValue(hand.get(0)), 
-							 BJController.cardValue(hand.get(1)));
-		else return null;
-		
-		return findMove(table, value, BJController.cardValue(dealer));
+		sum = aces = 0;
+		for (int i = 0; i < hand.size(); i++) {
+			val = BJController.cardValue(hand.get(i));
+			if (val == 11) {
+				aces++;
+				val = 1;
+			}
+			sum = sum + val;
+		}
+		boolean soft = aces > 0 && sum < 12;
+		if (soft) sum = sum + 10;
 		
+		int key = handKey(hand.size(), BJController.cardValue(hand.get(0)),
+				BJController.cardValue(hand.get(1)), sum, soft);
+		return findMove(0, key, BJController.cardValue(dealer));
+	}
+	
+	/**
+	 * Same as getRecommendedMove(ArrayList, Card), but reads the hand state
+	 * straight from the player's running totals. This is the lookup used by
+	 * the AI: a few field reads to build the hand key, and one table read.
+	 * 
+	 * @param player Player to recommend a move for
+	 * @param hand Position of hand to recommend a move for
+	 * @param dealerValue Blackjack value of the dealer's up card (2-11)
+	 * @return Move if a table could be determined, Null otherwise
+	 */
+	public Move getRecommendedMove(BJPlayer player, int hand, int dealerValue) {
+		ArrayList<Card> cards = player.getHand(hand);
+		if (cards.size() < 2) return null;
+		int key = handKey(cards.size(), BJController.cardValue(cards.get(0)),
+				BJController.cardValue(cards.get(1)), player.getHandScore(hand),
+				player.hasSoftAce(hand));
+		return findMove(0, key, dealerValue);
+	}
+	
+	/**
+	 * Same as getRecommendedMove(BJPlayer, int, int), but applies any count
+	 * based deviations for the given true count. Counts past the range the
+	 * deviations cover resolve to the nearest level, so this is the same
+	 * single table read as the basic strategy lookup.
+	 * 
+	 * @param player Player to recommend a move for
+	 * @param hand Position of hand to recommend a move for
+	 * @param dealerValue Blackjack value of the dealer's up card (2-11)
+	 * @param trueCount True count, rounded down to a whole number
+	 * @return Move if a table could be determined, Null otherwise
+	 */
+	public Move getRecommendedMove(BJPlayer player, int hand, int dealerValue, int trueCount) {
+		ArrayList<Card> cards = player.getHand(hand);
+		if (cards.size() < 2) return null;
+		int key = handKey(cards.size(), BJController.cardValue(cards.get(0)),
+				BJController.cardValue(cards.get(1)), player.getHandScore(hand),
+				player.hasSoftAce(hand));
+		int count = Math.max(minCount, Math.min(maxCount, trueCount));
+		return findMove((count - minCount + 1) * CELLS, key, dealerValue);
+	}
+	
+	/**
+	 * Number of count based deviations read from the text grid. Always 0 for
+	 * a strategy loaded from a compiled table, which only keeps the result.
+	 * @return # of deviations
+	 */
+	public int numDeviations() {
+		return deviations.size();
 	}
 
 	/**
-	 * This method encapsulates the table lookup code, based on the size of each
-	 * table, as well as the number of known valid values for a given table
+	 * Computes the hand key used to index the compiled strategy table. Two
+	 * card pairs and two card soft hands get keys of their own; every other
+	 * hand is keyed by its score.
 	 * 
-	 * @param table Which table to use (see chooseTable documentation for details
-	 * about how this calculate)
-	 * @param pVal Player card value to lookup (see getRecommendedMove documentation
-	 * for details about how this value is calculated)
+	 * @param size # of cards in hand
+	 * @param first Blackjack value of first card
+	 * @param second Blackjack value of second card
+	 * @param score Hand score
+	 * @param soft True if hand contains a soft ace
+	 * @return Hand key
+	 */
+	public static int handKey(int size, int first, int second, int score, boolean soft) {
+		if (size == 2) {
+			if (first == second) return PAIR + first;
+			if (soft) return SOFT + score;
+		}
+		return HARD + Math.min(score, KEY_BLOCK - 1);
+	}
+
+	/**
+	 * This method encapsulates the table lookup code. A single read from the
+	 * compiled table.
+	 * 
+	 * @param level Offset of the table level to read (0 for basic strategy)
+	 * @param key Hand key (see handKey)
 	 * @param dVal int value of Dealer's up card
-	 * @return Move if found from valid table, null otherwise
+	 * @return Move if found, null otherwise
+	 */
+	private Move findMove(int level, int key, int dVal) {
+		byte move = moves[level + key * DEALER_VALUES + dVal - 2];
+		if (move == NO_MOVE) return null;
+		return MOVES[move];
+	}
+
+	/**
+	 * Compiles the three parsed char tables into the flat table of Move
+	 * ordinals used by findMove. Keys that the file has no entry for are 
+	 * filled in: hard totals under 5 hit, and 21 or more stay.
+	 * <br><br>
+	 * The basic strategy goes in level 0. Each level after it is a copy with
+	 * the deviations for one true count applied, from one below the lowest
+	 * threshold to one above the highest, so any count past either end reads
+	 * the same as the end itself.
 	 */
-	private Move findMove(int table, int pVal, int dVal) {
+	private void compileTables() {
+		minCount = maxCount = 0;
+		if (!deviations.isEmpty()) {
+			minCount = Integer.MAX_VALUE;
+			maxCount = Integer.MIN_VALUE;
+			for (Deviation dev : deviations) {
+				minCount = Math.min(minCount, dev.count - 1);
+				maxCount = Math.max(maxCount, dev.count + 1);
+			}
+		}
+		moves = new byte[(maxCount - minCount + 2) * CELLS];
+		Arrays.fill(moves, NO_MOVE);
+		for (int d = 0; d < DEALER_VALUES; d++) {
+			// single ace table is indexed by the non-Ace card (2-10)
+			for (int p = 0; p < oneAce.length; p++) {
+				setMove(SOFT + 13 + p, d, moveFromChar(oneAce[p][d]));
+			}
+			setMove(SOFT + 21, d, Move.Stay);
+			// pair table is indexed by the card value (2-11)
+			for (int p = 0; p < pair.length; p++) {
+				setMove(PAIR + 2 + p, d, moveFromChar(pair[p][d]));
+			}
+			// sum table is indexed by the hand score (5-20)
+			for (int p = 0; p < sum.length; p++) {
+				setMove(HARD + 5 + p, d, moveFromChar(sum[p][d]));
+			}
+			for (int p = 0; p < 5; p++) setMove(HARD + p, d, Move.Hit);
+			for (int p = 21; p < KEY_BLOCK; p++) setMove(HARD + p, d, Move.Stay);
+		}
 		
-		switch (table) {
-		case 1: 
-			return moveFromChar(oneAce[pVal-2][dVal-2]);
-		case 2:
-			return moveFromChar(pair[pVal-2][dVal-2]);
-		case 3: 
-			return moveFromChar(sum[pVal-5][dVal-2]);
-		default:
-			return null;
+		for (int count = minCount; count <= maxCount; count++) {
+			int level = (count - minCount + 1) * CELLS;
+			System.arraycopy(moves, 0, moves, level, CELLS);
+			for (Deviation dev : deviations) {
+				if (dev.appliesAt(count)) moves[level + dev.cell] = (byte) dev.move.ordinal();
+			}
+		}
+	}
+	
+	/**
+	 * Parses one deviation line (see buildStrategyTables)
+	 * @param line table,player,dealer,&gt;=count or &lt;=count,move
+	 * @return Parsed deviation
+	 * @throws IOException if the line is not a valid deviation
+	 */
+	private Deviation parseDeviation(String line) throws IOException {
+		String[] fields = line.split(",");
+		if (fields.length != 5) throw new IOException("Bad deviation: " + line);
+		try {
+			int table = Integer.parseInt(fields[0].trim());
+			int player = Integer.parseInt(fields[1].trim());
+			int dealer = Integer.parseInt(fields[2].trim());
+			String threshold = fields[3].trim();
+			Move move = moveFromChar(fields[4].trim().charAt(0));
+			
+			int key;
+			switch (table) {
+			case 1: key = SOFT + 11 + player; break;	// non-ace card 2-10
+			case 2: key = PAIR + player; break;
+			case 3: key = HARD + player; break;
+			default: throw new IOException("Bad deviation table: " + line);
+			}
+			boolean atLeast = threshold.startsWith(">=");
+			if (!atLeast && !threshold.startsWith("<=")) 
+				throw new IOException("Bad deviation threshold: " + line);
+			int count = Integer.parseInt(threshold.substring(2).replace("+", ""));
+			
+			if (player < 2 || player >= KEY_BLOCK || !isUsedKey(key) || dealer < 2 ||
+					dealer > 11 || move == null || Math.abs(count) > MAX_COUNT)
+				throw new IOException("Bad deviation: " + line);
+			return new Deviation(key * DEALER_VALUES + dealer - 2, atLeast, count, move, line);
+		} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+			throw new IOException("Bad deviation: " + line);
 		}
 	}
 
+	/**
+	 * Rebuilds the char tables from the basic strategy level of the compiled
+	 * table, the reverse of compileTables. Cells with no move get '-'.
+	 */
+	private void decompileTables() {
+		for (int d = 0; d < DEALER_VALUES; d++) {
+			for (int p = 0; p < oneAce.length; p++) oneAce[p][d] = charFromMove(getMove(SOFT + 13 + p, d));
+			for (int p = 0; p < pair.length; p++) pair[p][d] = charFromMove(getMove(PAIR + 2 + p, d));
+			for (int p = 0; p < sum.length; p++) sum[p][d] = charFromMove(getMove(HARD + 5 + p, d));
+		}
+	}
+
+	/**
+	 * Move stored in the basic strategy level of the compiled table
+	 * @param key Hand key
+	 * @param d Dealer column (dealer value - 2)
+	 * @return Move, or null if there is none
+	 */
+	private Move getMove(int key, int d) {
+		byte move = moves[key * DEALER_VALUES + d];
+		return (move == NO_MOVE) ? null : MOVES[move];
+	}
+
+	/**
+	 * Stores a move in the compiled table
+	 * @param key Hand key
+	 * @param d Dealer column (dealer value - 2)
+	 * @param move Move to store, null if there is none
+	 */
+	private void setMove(int key, int d, Move move) {
+		moves[key * DEALER_VALUES + d] = (move == null) ? NO_MOVE : (byte) move.ordinal();
+	}
+
 	/**
 	 * This method translates a given char into the Move it represents.
 	 * @param c char representing a Move
@@ -206,28 +716,34 @@ public class BJStrategy {
 			return Move.Double;
 		case 'h':
 			return Move.Hit;
+		case 'r':
+			return Move.Surrender;
 		default: 
 			return null;
 		}
 	}
 
 	/**
-	 * This method evaluates a hand and chooses which table should be used to
-	 * look up the recommended move. The possible return values are as follows:
-	 * <ol>
-	 * <li>1 - Used when hand has a single Ace</li>
-	 * <li>2 - Used when hand is a pair of cards</li>
-	 * <li>3 - Used any time a hand has 3 or more cards, or does not meet the
-	 * 		   conditions for tables 1 or 2</li>
-	 * </ol>
-	 * @param hand Hand to evaluate
-	 * @return int indicating which table should be used for this hand.
-	 */
-	private int chooseTable(ArrayList<Card> hand) {
-		if (hand.size() > 2) return 3;
-		else if (BJController.cardValue(hand.get(0)) 
-			  == BJController.cardValue(hand.get(1))) return 2;
-		else return 1;
+	 * Grid char for a Move, the reverse of moveFromChar
+	 * @param move Move, may be null
+	 * @return Grid char, '-' if there is no move
+	 */
+	private static char charFromMove(Move move) {
+		if (move == null) return '-';
+		switch (move) {
+		case Split:
+			return 'p';
+		case Stay:
+			return 's';
+		case Double:
+			return 'd';
+		case Hit:
+			return 'h';
+		case Surrender:
+			return 'r';
+		default:
+			return '-';
+		}
 	}
 
 	/**
@@ -254,4 +770,69 @@ public class BJStrategy {
 		
 		return ret;
 	}
+	
+	/**
+	 * Comma separated run of ints, counting up or down, for writeGrid
+	 * @param from First value
+	 * @param to Last value
+	 * @return e.g. "2,3,4"
+	 */
+	private static String joinRange(int from, int to) {
+		StringBuilder str = new StringBuilder();
+		int step = (from <= to) ? 1 : -1;
+		for (int i = from; i != to + step; i = i + step) {
+			if (str.length() > 0) str.append(',');
+			str.append(i);
+		}
+		return str.toString();
+	}
+	
+	/**
+	 * Comma separated row of moves, for writeGrid
+	 * @param row Row of move chars
+	 * @return e.g. "h,s,d"
+	 */
+	private static String joinRow(char[] row) {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) str.append(',');
+			str.append(row[i]);
+		}
+		return str.toString();
+	}
+	
+	/**
+	 * Deep copy of a char table
+	 * @param table Table to copy
+	 * @return Copy
+	 */
+	private static char[][] copyOf(char[][] table) {
+		char[][] copy = new char[table.length][];
+		for (int i = 0; i < table.length; i++) copy[i] = table[i].clone();
+		return copy;
+	}
+	
+	/**
+	 * A count based deviation: the move to make in one cell of the table
+	 * when the true count is at or past a threshold.
+	 */
+	private static class Deviation {
+		final int cell;			// hand key * DEALER_VALUES + dealer column
+		final boolean atLeast;	// true for >=, false for <=
+		final int count;
+		final Move move;
+		final String line;		// as read, for writeGrid
+		
+		Deviation(int cell, boolean atLeast, int count, Move move, String line) {
+			this.cell = cell;
+			this.atLeast = atLeast;
+			this.count = count;
+			this.move = move;
+			this.line = line;
+		}
+		
+		boolean appliesAt(int trueCount) {
+			return atLeast ? trueCount >= count : trueCount <= count;
+		}
+	}
 }
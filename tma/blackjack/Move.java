@@ -2,13 +2,15 @@ package tma.blackjack;
 
 /**
  * Move class is an enum for all the legal blackjack moves. The only other method
- * is convert(), which returns the Move with the passed-in enum value
+ * is convert(), which returns the Move with the passed-in enum value.
+ * Ordinals are stored in the strategy tables and hand logs, so new moves go
+ * at the end. Surrender is only legal under rules that allow it (RuleSet).
  * @author Tyler Ambroziak
  * @version 1.0
  *
  */
 public enum Move {
-	Hit, Stay, Double, Split, Quit;
+	Hit, Stay, Double, Split, Quit, Surrender;
 
 	/**
 	 * Returns a Move value based on it's enum value
@@ -0,0 +1,337 @@
+package tma.blackjack;
+
+/**
+ * A RuleSet holds the house rules a game is played by: the shoe (decks and
+ * penetration), whether the dealer hits soft 17, doubling after a split, how
+ * many hands a seat can split to, late surrender, what a blackjack pays, and
+ * whether the shoe is a continuous shuffling machine.
+ * BJController, Round, Table and the simulators all take their rules from a
+ * RuleSet; the overloads without one play by DEFAULT.
+ * <br><br>
+ * A RuleSet is immutable, so one instance can be shared by any number of
+ * tables and threads. Variations are made from an existing set with the
+ * with...() methods, e.g. RuleSet.DEFAULT.withDecks(2).withHitSoft17(false).
+ * <br><br>
+ * Rule sets are written (toString) and read (parse) as short tokens, e.g.
+ * "6D H17 DAS SP* NS 3:2 100%":
+ * <ul>
+ * <li>nD - decks in the shoe</li>
+ * <li>H17 / S17 - dealer hits / stands on soft 17</li>
+ * <li>DAS / NDAS - double after split allowed or not</li>
+ * <li>SPn - a seat can split to at most n hands (SP* for no limit, SP1 for
+ * no splits)</li>
+ * <li>LS / NS - late surrender or no surrender</li>
+ * <li>a:b - blackjack pays a to b</li>
+ * <li>n% - penetration: share of the shoe dealt before a reshuffle</li>
+ * <li>CSM / SHOE - continuous shuffling machine, or a dealt shoe. Only CSM is
+ * written, so rule sets without one read the same as before.</li>
+ * </ul>
+ *
+ * @version 1.0
+ */
+public final class RuleSet {
+	/** Split limit for no limit at all */
+	public static final int NO_LIMIT = Integer.MAX_VALUE;
+	/**
+	 * The rules the game has always been played by: 6 decks dealt down to the
+	 * table's reserve, dealer hits soft 17, double on any two cards including
+	 * after a split, unlimited splits, no surrender, and blackjack pays 3:2
+	 */
+	public static final RuleSet DEFAULT = new RuleSet(6, 1.0, true, true, NO_LIMIT, false, 1.5);
+
+	private final int decks;
+	private final double penetration;
+	private final boolean hitSoft17;
+	private final boolean doubleAfterSplit;
+	private final int maxHands;
+	private final boolean surrender;
+	private final double blackjackPayout;
+	private final boolean continuousShuffle;
+
+	/**
+	 * Creates a rule set. Most callers should start from DEFAULT and change
+	 * the rules they need instead.
+	 * @param decks # of decks in the shoe (at least 1)
+	 * @param penetration Share of the shoe dealt before a reshuffle (over 0,
+	 * up to 1). At 1, the shoe is dealt down to the table's own reserve.
+	 * @param hitSoft17 True if the dealer hits soft 17
+	 * @param doubleAfterSplit True if a split hand can be doubled
+	 * @param maxHands Most hands a seat can split to (at least 1), or NO_LIMIT
+	 * @param surrender True if late surrender is allowed
+	 * @param blackjackPayout What a blackjack pays per unit bet (e.g. 1.5)
+	 * @throws IllegalArgumentException if a rule is out of range
+	 */
+	public RuleSet(int decks, double penetration, boolean hitSoft17, boolean doubleAfterSplit,
+			int maxHands, boolean surrender, double blackjackPayout) {
+		this(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout, false);
+	}
+
+	/**
+	 * Creates a rule set, dealt from a shoe or a continuous shuffling machine
+	 * @param decks # of decks in the shoe (at least 1)
+	 * @param penetration Share of the shoe dealt before a reshuffle (over 0,
+	 * up to 1). Ignored by a continuous shuffler.
+	 * @param hitSoft17 True if the dealer hits soft 17
+	 * @param doubleAfterSplit True if a split hand can be doubled
+	 * @param maxHands Most hands a seat can split to (at least 1), or NO_LIMIT
+	 * @param surrender True if late surrender is allowed
+	 * @param blackjackPayout What a blackjack pays per unit bet (e.g. 1.5)
+	 * @param continuousShuffle True if discards go straight back into the
+	 * shoe (see Deck.setContinuousShuffle)
+	 * @throws IllegalArgumentException if a rule is out of range
+	 */
+	public RuleSet(int decks, double penetration, boolean hitSoft17, boolean doubleAfterSplit,
+			int maxHands, boolean surrender, double blackjackPayout, boolean continuousShuffle) {
+		if (decks < 1) throw new IllegalArgumentException("Decks must be at least 1: " + decks);
+		if (!(penetration > 0 && penetration <= 1))
+			throw new IllegalArgumentException("Penetration must be over 0 and at most 1: " + penetration);
+		if (maxHands < 1) throw new IllegalArgumentException("Split limit must be at least 1: " + maxHands);
+		if (!(blackjackPayout >= 0))
+			throw new IllegalArgumentException("Blackjack payout cannot be negative: " + blackjackPayout);
+		this.decks = decks;
+		this.penetration = penetration;
+		this.hitSoft17 = hitSoft17;
+		this.doubleAfterSplit = doubleAfterSplit;
+		this.maxHands = maxHands;
+		this.surrender = surrender;
+		this.blackjackPayout = blackjackPayout;
+		this.continuousShuffle = continuousShuffle;
+	}
+
+	/**
+	 * Number of decks in the shoe
+	 * @return # of decks
+	 */
+	public int getDecks() {
+		return decks;
+	}
+
+	/**
+	 * Share of the shoe dealt before it is reshuffled
+	 * @return Penetration (over 0, up to 1)
+	 */
+	public double getPenetration() {
+		return penetration;
+	}
+
+	/**
+	 * Does the dealer hit soft 17?
+	 * @return True for H17, false for S17
+	 */
+	public boolean hitsSoft17() {
+		return hitSoft17;
+	}
+
+	/**
+	 * Can a hand that came from a split be doubled?
+	 * @return True if double after split is allowed
+	 */
+	public boolean allowsDoubleAfterSplit() {
+		return doubleAfterSplit;
+	}
+
+	/**
+	 * Most hands a seat can split to in one round
+	 * @return Split limit, or NO_LIMIT
+	 */
+	public int getMaxHands() {
+		return maxHands;
+	}
+
+	/**
+	 * Can a seat give up half its bet instead of playing its first two cards?
+	 * Surrender is late: the dealer has already checked for blackjack.
+	 * @return True if late surrender is allowed
+	 */
+	public boolean allowsSurrender() {
+		return surrender;
+	}
+
+	/**
+	 * What a blackjack pays, per unit bet
+	 * @return Blackjack payout (1.5 for 3:2)
+	 */
+	public double getBlackjackPayout() {
+		return blackjackPayout;
+	}
+
+	/**
+	 * Are discards shuffled straight back into the shoe?
+	 * @return True for a continuous shuffling machine
+	 */
+	public boolean usesContinuousShuffle() {
+		return continuousShuffle;
+	}
+
+	/**
+	 * Same rules with a different number of decks
+	 * @param decks # of decks
+	 * @return New rule set
+	 */
+	public RuleSet withDecks(int decks) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Same rules with a different penetration
+	 * @param penetration Share of the shoe dealt before a reshuffle
+	 * @return New rule set
+	 */
+	public RuleSet withPenetration(double penetration) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Same rules with the dealer hitting or standing on soft 17
+	 * @param hitSoft17 True if the dealer hits soft 17
+	 * @return New rule set
+	 */
+	public RuleSet withHitSoft17(boolean hitSoft17) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Same rules with or without double after split
+	 * @param doubleAfterSplit True if split hands can be doubled
+	 * @return New rule set
+	 */
+	public RuleSet withDoubleAfterSplit(boolean doubleAfterSplit) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Same rules with a different split limit
+	 * @param maxHands Most hands a seat can split to, or NO_LIMIT
+	 * @return New rule set
+	 */
+	public RuleSet withMaxHands(int maxHands) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Same rules with or without late surrender
+	 * @param surrender True if late surrender is allowed
+	 * @return New rule set
+	 */
+	public RuleSet withSurrender(boolean surrender) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Same rules with a different blackjack payout
+	 * @param blackjackPayout What a blackjack pays per unit bet
+	 * @return New rule set
+	 */
+	public RuleSet withBlackjackPayout(double blackjackPayout) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Same rules dealt from a continuous shuffling machine, or a shoe
+	 * @param continuousShuffle True for a continuous shuffling machine
+	 * @return New rule set
+	 */
+	public RuleSet withContinuousShuffle(boolean continuousShuffle) {
+		return new RuleSet(decks, penetration, hitSoft17, doubleAfterSplit, maxHands, surrender, blackjackPayout,
+				continuousShuffle);
+	}
+
+	/**
+	 * Number of cards left in the shoe at which it is reshuffled between
+	 * rounds. Never less than the reserve a table keeps so a round cannot run
+	 * the shoe dry.
+	 * @param reserve Fewest cards the table wants at the start of a round
+	 * @return Reshuffle when fewer than this many cards are left
+	 */
+	public int reshuffleAt(int reserve) {
+		int cut = (int) Math.round(decks * 52 * (1 - penetration));
+		return Math.max(reserve, cut);
+	}
+
+	/**
+	 * Reads a rule set from tokens (see the class description), separated by
+	 * spaces or commas. Rules that are not mentioned are DEFAULT's.
+	 * @param rules Rule tokens, e.g. "2D S17 LS"
+	 * @return Parsed rule set
+	 * @throws IllegalArgumentException if a token is not a rule
+	 */
+	public static RuleSet parse(String rules) {
+		RuleSet set = DEFAULT;
+		for (String token : rules.trim().toUpperCase().split("[\\s,]+")) {
+			if (token.isEmpty()) continue;
+			try {
+				if (token.equals("H17")) set = set.withHitSoft17(true);
+				else if (token.equals("S17")) set = set.withHitSoft17(false);
+				else if (token.equals("DAS")) set = set.withDoubleAfterSplit(true);
+				else if (token.equals("NDAS")) set = set.withDoubleAfterSplit(false);
+				else if (token.equals("LS")) set = set.withSurrender(true);
+				else if (token.equals("NS")) set = set.withSurrender(false);
+				else if (token.equals("CSM")) set = set.withContinuousShuffle(true);
+				else if (token.equals("SHOE")) set = set.withContinuousShuffle(false);
+				else if (token.equals("SP*")) set = set.withMaxHands(NO_LIMIT);
+				else if (token.startsWith("SP")) set = set.withMaxHands(Integer.parseInt(token.substring(2)));
+				else if (token.endsWith("D")) set = set.withDecks(Integer.parseInt(token.substring(0, token.length() - 1)));
+				else if (token.endsWith("%"))
+					set = set.withPenetration(Double.parseDouble(token.substring(0, token.length() - 1)) / 100);
+				else if (token.contains(":")) {
+					String[] ratio = token.split(":");
+					if (ratio.length != 2) throw new IllegalArgumentException("Bad payout: " + token);
+					set = set.withBlackjackPayout(Double.parseDouble(ratio[0]) / Double.parseDouble(ratio[1]));
+				}
+				else throw new IllegalArgumentException("Unknown rule: " + token);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad rule: " + token);
+			}
+		}
+		return set;
+	}
+
+	public boolean equals(Object other) {
+		if (this == other) return true;
+		if (!(other instanceof RuleSet)) return false;
+		RuleSet rules = (RuleSet) other;
+		return decks == rules.decks && penetration == rules.penetration &&
+				hitSoft17 == rules.hitSoft17 && doubleAfterSplit == rules.doubleAfterSplit &&
+				maxHands == rules.maxHands && surrender == rules.surrender &&
+				blackjackPayout == rules.blackjackPayout && continuousShuffle == rules.continuousShuffle;
+	}
+
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	/**
+	 * Returns the rules as tokens that parse() reads back
+	 * @return e.g. "6D H17 DAS SP* NS 3:2 100%"
+	 */
+	public String toString() {
+		String str = decks + "D " + (hitSoft17 ? "H17 " : "S17 ") + (doubleAfterSplit ? "DAS " : "NDAS ");
+		str = str + "SP" + ((maxHands == NO_LIMIT) ? "*" : String.valueOf(maxHands)) + " ";
+		str = str + (surrender ? "LS " : "NS ") + payoutRatio() + " ";
+		double percent = penetration * 100;
+		if (percent == Math.rint(percent)) str = str + (long) percent + "%";
+		else str = str + percent + "%";
+		if (continuousShuffle) str = str + " CSM";
+		return str;
+	}
+
+	/**
+	 * Writes the blackjack payout as a ratio of the smallest whole numbers
+	 * that give it (3:2, 6:5, 1:1), falling back to x:1
+	 * @return Payout ratio
+	 */
+	private String payoutRatio() {
+		for (int to = 1; to <= 10; to++) {
+			double pays = blackjackPayout * to;
+			if (Math.abs(pays - Math.rint(pays)) < 1e-9) return (long) Math.rint(pays) + ":" + to;
+		}
+		return blackjackPayout + ":1";
+	}
+}
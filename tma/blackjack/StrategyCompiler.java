@@ -0,0 +1,37 @@
+package tma.blackjack;
+
+import java.io.*;
+
+/**
+ * StrategyCompiler parses a strategy grid text file and saves the compiled
+ * tables in the binary form read by BJStrategy.getInstance(). The shared
+ * instance only reads the binary file, and parses the text grid instead
+ * whenever the binary file is missing or older than it, so this is the only
+ * place the binary file is written.
+ * <br><br>
+ * Usage: StrategyCompiler [grid] [output]
+ *
+ * @version 1.0
+ */
+public class StrategyCompiler {
+	public static void main(String[] args) {
+		String grid = BJStrategy.TEXT_FILE;
+		String output = BJStrategy.COMPILED_FILE;
+		if (args.length > 0) grid = args[0];
+		if (args.length > 1) output = args[1];
+
+		BJStrategy strategy = new BJStrategy(grid);
+		if (!strategy.isComplete()) {
+			System.out.println("Strategy grid " + grid + " is incomplete, not compiling");
+			System.exit(1);
+		}
+		try (OutputStream out = new FileOutputStream(output)) {
+			strategy.writeCompiled(out);
+		} catch (IOException e) {
+			System.out.println("Error writing " + output + ": " + e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(strategy.loadReport());
+		System.out.println("Compiled strategy written to " + output);
+	}
+}
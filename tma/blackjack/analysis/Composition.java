@@ -0,0 +1,130 @@
+package tma.blackjack.analysis;
+
+import tma.blackjack.BJController;
+import tma.deck.Card;
+import tma.deck.DeckSnapshot;
+
+/**
+ * Composition contains helpers for describing what is left in a shoe as a
+ * count vector, the form used by the analysis engines. A composition is an
+ * int array of RANKS counts, indexed by blackjack value - 1: index 0 holds
+ * the Aces, 1 through 8 hold Two through Nine, and 9 holds every ten-valued
+ * card (Ten, Jack, Queen, King).
+ * <br><br>
+ * A composition can also be packed into a single long key (see key()), which
+ * is what the analysis caches are keyed on.
+ * <br><br>
+ * A live shoe's composition comes from a DeckSnapshot (see of()), so each
+ * branch of an analysis can start from a cheap copy of the snapshot.
+ *
+ * @version 1.0
+ */
+public final class Composition {
+	/** Number of distinct card values in a composition */
+	public static final int RANKS = 10;
+	/** Index of the Aces */
+	public static final int ACE = 0;
+	/** Index of the ten-valued cards */
+	public static final int TEN = 9;
+	// key packing: 6 bits for each of Ace through Nine, 8 bits for tens
+	private static final int BITS = 6;
+	private static final int MAX_COUNT = (1 << BITS) - 1;
+	private static final int MAX_TENS = 255;
+
+	private Composition() {
+	}
+
+	/**
+	 * Returns the composition of a full shoe
+	 * @param packs # of decks in the shoe
+	 * @return Composition of the shoe
+	 */
+	public static int[] fullShoe(int packs) {
+		int[] counts = new int[RANKS];
+		for (int i = 0; i < TEN; i++) counts[i] = 4 * packs;
+		counts[TEN] = 16 * packs;
+		return counts;
+	}
+
+	/**
+	 * Returns the composition of what is left in a snapshot of a deck,
+	 * folding Ten through King into the ten-valued index
+	 * @param snapshot Snapshot of a deck
+	 * @return Composition of the snapshot
+	 */
+	public static int[] of(DeckSnapshot snapshot) {
+		int[] ranks = snapshot.getComposition(null);
+		int[] counts = new int[RANKS];
+		for (int i = 0; i < ranks.length; i++) counts[Math.min(i, TEN)] += ranks[i];
+		return counts;
+	}
+
+	/**
+	 * Returns the composition index of a card
+	 * @param card Card
+	 * @return Index of the card's value
+	 */
+	public static int indexOf(Card card) {
+		return indexOfValue(BJController.cardValue(card));
+	}
+
+	/**
+	 * Returns the composition index for a blackjack card value
+	 * @param value Blackjack value (2-11, Aces are 11)
+	 * @return Index of the value
+	 */
+	public static int indexOfValue(int value) {
+		if (value == 11) return ACE;
+		return value - 1;
+	}
+
+	/**
+	 * Returns the blackjack value of a composition index, counting Aces as 1
+	 * @param index Composition index
+	 * @return Card value (1-10)
+	 */
+	public static int valueOf(int index) {
+		return index + 1;
+	}
+
+	/**
+	 * Total # of cards in a composition
+	 * @param counts Composition
+	 * @return # of cards
+	 */
+	public static int size(int[] counts) {
+		int total = 0;
+		for (int i = 0; i < RANKS; i++) total = total + counts[i];
+		return total;
+	}
+
+	/**
+	 * What one card of a value adds to a composition's key, so a key can be
+	 * kept up to date card by card instead of packed again
+	 * @param index Composition index
+	 * @return Key of a composition holding just that one card
+	 */
+	static long keyUnit(int index) {
+		if (index == TEN) return 1;
+		return 1L << (8 + BITS * (TEN - 1 - index));
+	}
+
+	/**
+	 * Packs a composition into a single long. Supports shoes of up to 15 
+	 * decks.
+	 * @param counts Composition
+	 * @return Composition key
+	 * @throws IllegalArgumentException if a count is too large to pack
+	 */
+	public static long key(int[] counts) {
+		long key = 0;
+		for (int i = 0; i < TEN; i++) {
+			if (counts[i] < 0 || counts[i] > MAX_COUNT) 
+				throw new IllegalArgumentException("Composition count out of range: " + counts[i]);
+			key = (key << BITS) | counts[i];
+		}
+		if (counts[TEN] < 0 || counts[TEN] > MAX_TENS) 
+			throw new IllegalArgumentException("Composition count out of range: " + counts[TEN]);
+		return (key << 8) | counts[TEN];
+	}
+}
@@ -0,0 +1,91 @@
+package tma.blackjack.analysis;
+
+/**
+ * DealerOutcome holds the probabilities of every way the dealer's hand can
+ * finish: standing on 17 through 21, blackjack, or busting. Instances are
+ * immutable, so they can be cached and shared.
+ *
+ * @version 1.0
+ */
+public class DealerOutcome {
+	/** Index of the bust probability in toArray() */
+	public static final int BUST = 5;
+	/** Index of the blackjack probability in toArray() */
+	public static final int BLACKJACK = 6;
+	static final int OUTCOMES = 7;
+
+	// [0-4] = 17-21, [5] = bust, [6] = blackjack
+	private final double[] probs;
+
+	DealerOutcome(double[] probs) {
+		this.probs = probs;
+	}
+
+	/**
+	 * Probability of the dealer standing on a given total. Blackjack is not
+	 * counted as 21 here; see blackjack().
+	 * @param total Final total (17-21)
+	 * @return Probability, or 0 for totals the dealer cannot stand on
+	 */
+	public double standOn(int total) {
+		if (total < 17 || total > 21) return 0;
+		return probs[total - 17];
+	}
+
+	/**
+	 * Probability of the dealer having blackjack
+	 * @return Probability
+	 */
+	public double blackjack() {
+		return probs[BLACKJACK];
+	}
+
+	/**
+	 * Probability of the dealer busting
+	 * @return Probability
+	 */
+	public double bust() {
+		return probs[BUST];
+	}
+
+	/**
+	 * The probabilities themselves, for the analysis engines to read without
+	 * a copy. Must not be modified.
+	 * @return Probabilities, indexed as in toArray()
+	 */
+	double[] probs() {
+		return probs;
+	}
+
+	/**
+	 * The probabilities as an array: 17 through 21 at indexes 0-4, followed by
+	 * bust and blackjack
+	 * @return Copy of the probabilities
+	 */
+	public double[] toArray() {
+		return probs.clone();
+	}
+
+	/**
+	 * Returns the outcome given that the dealer has already checked for, and
+	 * does not have, blackjack.
+	 * @return Outcome conditioned on no dealer blackjack
+	 */
+	public DealerOutcome givenNoBlackjack() {
+		double rest = 1 - probs[BLACKJACK];
+		double[] given = new double[OUTCOMES];
+		if (rest > 0) {
+			for (int i = 0; i < BLACKJACK; i++) given[i] = probs[i] / rest;
+		}
+		return new DealerOutcome(given);
+	}
+
+	/**
+	 * Returns a one line description of the outcome probabilities
+	 * @return Description of outcome
+	 */
+	public String toString() {
+		return String.format("17: %.4f  18: %.4f  19: %.4f  20: %.4f  21: %.4f  BJ: %.4f  Bust: %.4f",
+				probs[0], probs[1], probs[2], probs[3], probs[4], probs[BLACKJACK], probs[BUST]);
+	}
+}
@@ -0,0 +1,235 @@
+package tma.blackjack.analysis;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DealerProbabilities computes the exact distribution of the dealer's final
+ * hand for a given up card and remaining shoe composition. The dealer follows
+ * the same rules as BJController.getRequiredMove (hit below 17, and on soft 17
+ * unless told otherwise).
+ * <br><br>
+ * The probability of the dealer drawing a given sequence of cards only depends
+ * on which cards were drawn, not their order, and the dealer's final hand is
+ * fixed by those cards too. So for every up card, the dealer's possible final
+ * hands are worked out once, as multisets of drawn cards along with the number
+ * of draw orders that lead to each. A query then only has to weight every 
+ * final hand by the composition, with no recursion.
+ * <br><br>
+ * Results are cached by up card and composition key, so asking again for a
+ * shoe that has already been seen is a single map lookup. The cache is safe
+ * to share between threads; it is cleared when it reaches its size limit.
+ *
+ * @version 1.0
+ */
+public class DealerProbabilities {
+	private static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+	private final boolean hitSoft17;
+	private final int cacheSize;
+	// final dealer hands, per up card
+	private final FinalHands[] finalHands;
+	// one cache per up card
+	private final ConcurrentHashMap<Long, DealerOutcome>[] cache;
+
+	/**
+	 * Creates a calculator for a dealer that hits soft 17, as in the CLI game
+	 */
+	public DealerProbabilities() {
+		this(true, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Creates a calculator
+	 * @param hitSoft17 True if dealer hits soft 17
+	 * @param cacheSize Max # of cached results per up card
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public DealerProbabilities(boolean hitSoft17, int cacheSize) {
+		this.hitSoft17 = hitSoft17;
+		this.cacheSize = cacheSize;
+		finalHands = new FinalHands[Composition.RANKS];
+		cache = new ConcurrentHashMap[Composition.RANKS];
+		for (int i = 0; i < cache.length; i++) {
+			finalHands[i] = new FinalHands(i, hitSoft17);
+			cache[i] = new ConcurrentHashMap<Long, DealerOutcome>();
+		}
+	}
+
+	/**
+	 * Does the dealer hit soft 17?
+	 * @return True if dealer hits soft 17
+	 */
+	public boolean hitsSoft17() {
+		return hitSoft17;
+	}
+
+	/**
+	 * Returns the outcome distribution for a dealer showing a given card. The
+	 * composition is what is left in the shoe, not counting the up card.
+	 * @param upCard Composition index of the dealer's up card
+	 * @param counts Remaining shoe composition (not modified)
+	 * @return Distribution of the dealer's final hand
+	 */
+	public DealerOutcome outcome(int upCard, int[] counts) {
+		Long key = Composition.key(counts);
+		DealerOutcome outcome = cache[upCard].get(key);
+		if (outcome != null) return outcome;
+
+		outcome = new DealerOutcome(finalHands[upCard].weigh(counts));
+		if (cache[upCard].size() >= cacheSize) cache[upCard].clear();
+		cache[upCard].put(key, outcome);
+		return outcome;
+	}
+
+	/**
+	 * Every final hand a dealer can reach from one up card, stored as flat
+	 * arrays: for final hand t, the cards drawn are the (rank, multiplicity)
+	 * pairs from start[t] to start[t + 1], and orders[t] draw orders lead to
+	 * it.
+	 */
+	private static class FinalHands {
+		private final boolean hitSoft17;
+		private int count;
+		private int[] outcome = new int[64];
+		private double[] orders = new double[64];
+		private int[] length = new int[64];
+		private int[] start = new int[65];
+		private int[] rank = new int[256];
+		private int[] mult = new int[256];
+		// rank * (maxMult + 1) + mult, for indexing the falling factorials
+		private int[] slot;
+		private int maxMult;
+		private int maxLength;
+
+		/**
+		 * Enumerates every draw sequence from an up card, assuming an unlimited
+		 * supply of each card; the weights in weigh() zero out sequences a
+		 * real shoe cannot produce.
+		 */
+		FinalHands(int upCard, boolean hitSoft17) {
+			this.hitSoft17 = hitSoft17;
+			HashMap<Long, Integer> index = new HashMap<Long, Integer>();
+			int[] drawn = new int[Composition.RANKS];
+			draw(drawn, 0, Composition.valueOf(upCard), upCard == Composition.ACE, index);
+			slot = new int[start[count]];
+			for (int i = 0; i < slot.length; i++) {
+				slot[i] = rank[i] * (maxMult + 1) + mult[i];
+			}
+		}
+
+		private void draw(int[] drawn, int cards, int hard, boolean ace, HashMap<Long, Integer> index) {
+			boolean soft = ace && hard < 12;
+			int score = soft ? hard + 10 : hard;
+			int result = -1;
+
+			if (cards == 1 && score == 21) result = DealerOutcome.BLACKJACK;
+			else if (score > 21) result = DealerOutcome.BUST;
+			else if (score > 17 || (score == 17 && !(soft && hitSoft17))) result = score - 17;
+
+			if (result >= 0) {
+				Long key = Composition.key(drawn);
+				Integer t = index.get(key);
+				if (t == null) {
+					t = add(drawn, cards, result);
+					index.put(key, t);
+				}
+				orders[t] = orders[t] + 1;
+				return;
+			}
+
+			for (int i = 0; i < Composition.RANKS; i++) {
+				drawn[i]++;
+				draw(drawn, cards + 1, hard + Composition.valueOf(i), ace || i == Composition.ACE, index);
+				drawn[i]--;
+			}
+		}
+
+		private int add(int[] drawn, int cards, int result) {
+			if (count == outcome.length) {
+				outcome = Arrays.copyOf(outcome, count * 2);
+				orders = Arrays.copyOf(orders, count * 2);
+				length = Arrays.copyOf(length, count * 2);
+				start = Arrays.copyOf(start, count * 2 + 1);
+			}
+			int next = start[count];
+			for (int i = 0; i < Composition.RANKS; i++) {
+				if (drawn[i] == 0) continue;
+				if (next == rank.length) {
+					rank = Arrays.copyOf(rank, next * 2);
+					mult = Arrays.copyOf(mult, next * 2);
+				}
+				rank[next] = i;
+				mult[next] = drawn[i];
+				maxMult = Math.max(maxMult, drawn[i]);
+				next++;
+			}
+			outcome[count] = result;
+			length[count] = cards;
+			maxLength = Math.max(maxLength, cards);
+			start[count + 1] = next;
+			return count++;
+		}
+
+		/**
+		 * Weighs every final hand by its probability under a composition.
+		 * Drawing a given multiset m of cards in one given order from a shoe of
+		 * N cards, n[c] of value c, has probability 
+		 * (product of n[c] falling factorial m[c]) / (N falling factorial |m|).
+		 * @param counts Remaining shoe composition
+		 * @return Outcome probabilities, indexed as in DealerOutcome
+		 */
+		double[] weigh(int[] counts) {
+			double[] probs = new double[DealerOutcome.OUTCOMES];
+			int stride = maxMult + 1;
+			double[] falling = new double[Composition.RANKS * stride];
+			for (int c = 0; c < Composition.RANKS; c++) {
+				falling[c * stride] = 1;
+				for (int j = 1; j <= maxMult; j++) {
+					falling[c * stride + j] = falling[c * stride + j - 1] * Math.max(0, counts[c] - j + 1);
+				}
+			}
+			int total = Composition.size(counts);
+			double[] inverse = new double[maxLength + 1];
+			double product = 1;
+			for (int k = 0; k <= maxLength && k <= total; k++) {
+				inverse[k] = 1 / product;
+				product = product * (total - k);
+			}
+
+			for (int t = 0; t < count; t++) {
+				if (length[t] > total) continue;
+				double w = orders[t] * inverse[length[t]];
+				for (int i = start[t]; i < start[t + 1]; i++) {
+					w = w * falling[slot[i]];
+				}
+				probs[outcome[t]] += w;
+			}
+			return probs;
+		}
+	}
+
+	/**
+	 * Prints the dealer outcome table for a full shoe
+	 * @param args [decks] [s17]
+	 */
+	public static void main(String[] args) {
+		int decks = 6;
+		boolean h17 = true;
+		if (args.length > 0) decks = Integer.parseInt(args[0]);
+		if (args.length > 1) h17 = !args[1].equalsIgnoreCase("s17");
+
+		DealerProbabilities dealer = new DealerProbabilities(h17, DEFAULT_CACHE_SIZE);
+		System.out.println(decks + " deck(s), dealer " + (h17 ? "hits" : "stands on") + " soft 17");
+		for (int up = 1; up <= Composition.RANKS; up++) {
+			int index = up % Composition.RANKS;
+			int[] shoe = Composition.fullShoe(decks);
+			shoe[index]--;
+			long start = System.nanoTime();
+			DealerOutcome outcome = dealer.outcome(index, shoe);
+			long elapsed = System.nanoTime() - start;
+			String name = (index == Composition.ACE) ? "A" : Integer.toString(Composition.valueOf(index));
+			System.out.println(String.format("%2s  %s  (%.2f ms)", name, outcome, elapsed / 1e6));
+		}
+	}
+}
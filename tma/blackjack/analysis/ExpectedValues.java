@@ -0,0 +1,499 @@
+package tma.blackjack.analysis;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import tma.blackjack.*;
+
+/**
+ * ExpectedValues computes the expected value of Stay, Hit, Double and Split
+ * for a hand, given the dealer's up card and what is left in the shoe.
+ * Unlike BJStrategy, which answers from a fixed grid, every answer here
+ * depends on the actual composition of the shoe.
+ * <br><br>
+ * Hitting is a recursion over the shoe states reachable by drawing, with the
+ * best of standing and hitting again taken at every step. A player state is
+ * fully determined by the hand total and the shoe it is played from, so
+ * within a decision hit values are memoized by total and composition key, in
+ * a table of primitives so a lookup allocates nothing. The hit and split
+ * values of each decision are also cached by (up card, total, soft) and
+ * composition key, across decisions, so asking again about the same hand
+ * and shoe is a lookup. Like the dealer's cache, these are safe to share
+ * between threads and are cleared when they fill up. Dealer outcomes come
+ * from a DealerProbabilities.
+ * <br><br>
+ * Shoes of up to EXACT_CARDS cards, where every card makes a difference, are
+ * valued exactly. On larger shoes two approximations keep a decision well
+ * under a millisecond, each worth far less than a hundredth of a percent:
+ * the dealer's outcome is worked out exactly for the shoe and for every
+ * single card drawn from it, and further cards the player draws change it by
+ * the sum of their single card effects; and standing is skipped where
+ * hitting cannot bust and standing only wins if the dealer busts (see
+ * mustHit), as is hitting a hard 17 or more (see mustStand).
+ * <br><br>
+ * The table rules come from a RuleSet: whether the dealer hits soft 17, the
+ * blackjack payout, double after split, surrender (late, worth -0.5) and how
+ * many hands a seat may split to. Resplits are valued up to MAX_RESPLITS
+ * deep, which is all but a vanishing share of their value, with a hand's
+ * remaining splits shared evenly between the two hands it splits into.
+ * <br><br>
+ * Assumptions: the dealer checks for blackjack before the player acts (as in
+ * the CLI game), so values are conditioned on no dealer blackjack; split
+ * hands are valued independently from the same shoe.
+ *
+ * @version 1.0
+ */
+public class ExpectedValues {
+	/** Largest shoe, in cards, that is valued exactly */
+	public static final int EXACT_CARDS = 52;
+	/** Most resplits valued after the first split */
+	public static final int MAX_RESPLITS = 2;
+	private static final int DEFAULT_CACHE_SIZE = 1 << 16;
+	private static final int MAX_HARD = 21;
+
+	private final RuleSet rules;
+	private final DealerProbabilities dealer;
+	private final int cacheSize;
+	// hit values, one cache per (up card, hard total, soft) state
+	private final ConcurrentHashMap<Long, Double>[] hitCache;
+	// split values, one cache per (up card, pair card, resplits left)
+	private final ConcurrentHashMap<Long, Double>[] splitCache;
+
+	/**
+	 * Creates an engine for the default rules (see RuleSet.DEFAULT)
+	 */
+	public ExpectedValues() {
+		this(RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Creates an engine for a set of rules, with a new dealer calculator
+	 * @param rules Rules of the game
+	 */
+	public ExpectedValues(RuleSet rules) {
+		this(rules, new DealerProbabilities(rules.hitsSoft17(), DEFAULT_CACHE_SIZE));
+	}
+
+	/**
+	 * Creates an engine using a given dealer calculator, for 3:2 blackjack,
+	 * double after split, no resplits and no surrender. Sharing a calculator
+	 * between engines shares its cache.
+	 * @param dealer Dealer outcome calculator
+	 */
+	public ExpectedValues(DealerProbabilities dealer) {
+		this(RuleSet.DEFAULT.withHitSoft17(dealer.hitsSoft17()).withMaxHands(2), dealer);
+	}
+
+	/**
+	 * Creates an engine for a set of rules using a given dealer calculator.
+	 * Sharing a calculator between engines shares its cache.
+	 * @param rules Rules of the game
+	 * @param dealer Dealer outcome calculator, hitting soft 17 as the rules do
+	 * @throws IllegalArgumentException If the dealer and the rules disagree on
+	 * soft 17
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ExpectedValues(RuleSet rules, DealerProbabilities dealer) {
+		if (rules.hitsSoft17() != dealer.hitsSoft17()) {
+			throw new IllegalArgumentException("Dealer does not play soft 17 as the rules do: " + rules);
+		}
+		this.rules = rules;
+		this.dealer = dealer;
+		this.cacheSize = DEFAULT_CACHE_SIZE;
+		hitCache = new ConcurrentHashMap[Composition.RANKS * (MAX_HARD + 1) * 2];
+		splitCache = new ConcurrentHashMap[Composition.RANKS * Composition.RANKS * (MAX_RESPLITS + 1)];
+		for (int i = 0; i < hitCache.length; i++) hitCache[i] = new ConcurrentHashMap<Long, Double>();
+		for (int i = 0; i < splitCache.length; i++) splitCache[i] = new ConcurrentHashMap<Long, Double>();
+	}
+
+	/**
+	 * Recommends the move with the highest expected value for a player's hand.
+	 * Same purpose as BJStrategy.getRecommendedMove, but composition dependent.
+	 * @param player Player to recommend a move for
+	 * @param hand Position of hand
+	 * @param dealerValue Blackjack value of the dealer's up card (2-11)
+	 * @param counts Remaining shoe composition (see Composition), not counting
+	 * any card already dealt
+	 * @return Best move
+	 */
+	public Move getRecommendedMove(BJPlayer player, int hand, int dealerValue, int[] counts) {
+		return evaluate(player, hand, dealerValue, counts).best();
+	}
+
+	/**
+	 * Computes the value of every legal move for a player's hand
+	 * @param player Player to evaluate
+	 * @param hand Position of hand
+	 * @param dealerValue Blackjack value of the dealer's up card (2-11)
+	 * @param counts Remaining shoe composition, not counting any card already
+	 * dealt (not modified)
+	 * @return Values of each legal move
+	 */
+	public MoveValues evaluate(BJPlayer player, int hand, int dealerValue, int[] counts) {
+		int score = player.getHandScore(hand);
+		boolean soft = player.hasSoftAce(hand);
+		int pairIndex = -1;
+		if (BJController.isLegalMove(player, hand, Move.Split, rules)) {
+			pairIndex = Composition.indexOf(player.getHand(hand).get(0));
+		}
+		boolean natural = player.hasBlackjack(hand) && player.numActiveHands() == 1;
+		return evaluate(soft ? score - 10 : score, soft, natural,
+				BJController.isLegalMove(player, hand, Move.Double, rules),
+				BJController.isLegalMove(player, hand, Move.Surrender, rules),
+				pairIndex, resplits(player.numActiveHands() + 1),
+				Composition.indexOfValue(dealerValue), counts);
+	}
+
+	/**
+	 * Computes the value of every legal move for a two card hand
+	 * @param first Composition index of first card
+	 * @param second Composition index of second card
+	 * @param upCard Composition index of dealer's up card
+	 * @param counts Remaining shoe composition, not counting the three cards
+	 * above (not modified)
+	 * @return Values of each legal move
+	 */
+	public MoveValues evaluate(int first, int second, int upCard, int[] counts) {
+		int hard = Composition.valueOf(first) + Composition.valueOf(second);
+		boolean ace = first == Composition.ACE || second == Composition.ACE;
+		boolean soft = ace && hard < 12;
+		boolean natural = soft && hard == 11;
+		int pairIndex = (first == second && rules.getMaxHands() > 1) ? first : -1;
+		return evaluate(hard, soft, natural, !natural, !natural && rules.allowsSurrender(),
+				pairIndex, resplits(2), upCard, counts);
+	}
+
+	/**
+	 * How many more times a hand may be split once a seat has a number of
+	 * hands, up to MAX_RESPLITS
+	 */
+	private int resplits(int hands) {
+		return Math.max(0, Math.min(MAX_RESPLITS, rules.getMaxHands() - hands));
+	}
+
+	/**
+	 * Computes move values for a hand state
+	 * @param hard Hand total, Aces counted as 1
+	 * @param soft True if an Ace in the hand can count as 11
+	 * @param natural True if hand is a blackjack
+	 * @param canDouble True if doubling is legal
+	 * @param canSurrender True if surrendering is legal
+	 * @param pairIndex Composition index of the pair card, or -1 if the hand
+	 * cannot be split
+	 * @param resplits # of times a hand may be split again after splitting
+	 * @param upCard Composition index of dealer's up card
+	 * @param counts Remaining shoe composition
+	 * @return Values of each legal move
+	 */
+	private MoveValues evaluate(int hard, boolean soft, boolean natural, boolean canDouble, 
+			boolean canSurrender, int pairIndex, int resplits, int upCard, int[] counts) {
+		MoveValues values = new MoveValues();
+		if (natural) {
+			values.set(Move.Stay, rules.getBlackjackPayout());
+			return values;
+		}
+		if (canSurrender) values.set(Move.Surrender, -0.5);
+		Evaluation eval = new Evaluation(upCard, counts);
+		Long key = Composition.key(counts);
+		int score = soft ? hard + 10 : hard;
+		values.set(Move.Stay, eval.stand(score));
+		if (score < 21) {
+			ConcurrentHashMap<Long, Double> cache = hitCache[(upCard * (MAX_HARD + 1) + hard) * 2 + (soft ? 1 : 0)];
+			Double hit = cache.get(key);
+			if (hit == null) {
+				hit = eval.hit(hard, soft);
+				store(cache, key, hit);
+			}
+			values.set(Move.Hit, hit);
+		}
+		if (canDouble) values.set(Move.Double, eval.doubleDown(hard, soft));
+		if (pairIndex >= 0) {
+			ConcurrentHashMap<Long, Double> cache = 
+					splitCache[(upCard * Composition.RANKS + pairIndex) * (MAX_RESPLITS + 1) + resplits];
+			Double split = cache.get(key);
+			if (split == null) {
+				split = eval.split(pairIndex, resplits);
+				store(cache, key, split);
+			}
+			values.set(Move.Split, split);
+		}
+		return values;
+	}
+
+	/**
+	 * Stores a value in one of the caches, clearing it first if it is full
+	 */
+	private void store(ConcurrentHashMap<Long, Double> cache, Long key, double value) {
+		if (cache.size() >= cacheSize) cache.clear();
+		cache.put(key, value);
+	}
+
+	/**
+	 * Working state for a single decision: the shoe (used as scratch space and
+	 * restored after every draw), the memo of hit values and, on a shoe too
+	 * large to value exactly, the dealer's outcome after each draw.
+	 */
+	private class Evaluation {
+		// most cards the player can draw in one line of play
+		private static final int MAX_DRAWS = MAX_HARD + 1 + MAX_RESPLITS;
+
+		private final int upCard;
+		private final int[] counts;
+		private int remaining;
+		// composition key of counts, kept up to date by draw and undraw
+		private long key;
+		private final Memo memo = new Memo();
+		private final boolean exact;
+		// approximate only: dealer outcome at each depth of draws, and the
+		// change a single card of each rank makes to it
+		private double[][] outcome;
+		private double[][] delta;
+		private int depth;
+
+		Evaluation(int upCard, int[] counts) {
+			this.upCard = upCard;
+			this.counts = counts.clone();
+			remaining = Composition.size(counts);
+			key = Composition.key(counts);
+			exact = remaining <= EXACT_CARDS;
+			if (exact) return;
+
+			outcome = new double[MAX_DRAWS + 1][];
+			for (int d = 0; d <= MAX_DRAWS; d++) outcome[d] = new double[DealerOutcome.OUTCOMES];
+			double[] base = dealer.outcome(upCard, this.counts).probs();
+			System.arraycopy(base, 0, outcome[0], 0, base.length);
+			delta = new double[Composition.RANKS][DealerOutcome.OUTCOMES];
+			for (int i = 0; i < Composition.RANKS; i++) {
+				if (this.counts[i] == 0) continue;
+				this.counts[i]--;
+				double[] less = dealer.outcome(upCard, this.counts).probs();
+				this.counts[i]++;
+				for (int k = 0; k < base.length; k++) delta[i][k] = less[k] - base[k];
+			}
+		}
+
+		/**
+		 * Value of standing on a score with the current shoe, given the dealer
+		 * does not have blackjack
+		 */
+		double stand(int score) {
+			if (score > 21) return -1;
+			double[] probs = exact ? dealer.outcome(upCard, counts).probs() : outcome[depth];
+			double rest = 1 - probs[DealerOutcome.BLACKJACK];
+			double ev = probs[DealerOutcome.BUST];
+			for (int total = 17; total <= 21; total++) {
+				if (score > total) ev = ev + probs[total - 17];
+				else if (score < total) ev = ev - probs[total - 17];
+			}
+			return ev / rest;
+		}
+
+		/**
+		 * Value of hitting, then playing on optimally (standing or hitting)
+		 */
+		double hit(int hard, boolean soft) {
+			int state = hard * 2 + (soft ? 1 : 0);
+			double memoized = memo.get(key, state);
+			if (!Double.isNaN(memoized)) return memoized;
+
+			double ev = 0;
+			for (int i = 0; i < Composition.RANKS; i++) {
+				if (counts[i] == 0) continue;
+				double p = (double) counts[i] / remaining;
+				int nextHard = hard + Composition.valueOf(i);
+				boolean nextSoft = (soft || i == Composition.ACE) && nextHard < 12;
+				int score = nextSoft ? nextHard + 10 : nextHard;
+				if (score > 21) {
+					ev = ev - p;
+					continue;
+				}
+				draw(i);
+				double best;
+				if (mustHit(score, nextSoft)) best = hit(nextHard, nextSoft);
+				else {
+					best = stand(score);
+					if (score < 21 && !mustStand(score, nextSoft)) best = Math.max(best, hit(nextHard, nextSoft));
+				}
+				ev = ev + p * best;
+				undraw(i);
+			}
+			memo.put(key, state, ev);
+			return ev;
+		}
+
+		/**
+		 * Value of doubling: exactly one more card, then stand, for twice
+		 * the wager
+		 */
+		double doubleDown(int hard, boolean soft) {
+			double ev = 0;
+			for (int i = 0; i < Composition.RANKS; i++) {
+				if (counts[i] == 0) continue;
+				double p = (double) counts[i] / remaining;
+				int nextHard = hard + Composition.valueOf(i);
+				boolean nextSoft = (soft || i == Composition.ACE) && nextHard < 12;
+				draw(i);
+				ev = ev + p * stand(nextSoft ? nextHard + 10 : nextHard);
+				undraw(i);
+			}
+			return 2 * ev;
+		}
+
+		/**
+		 * Value of splitting: the value of two hands starting with one of the
+		 * pair cards, played on optimally, sharing the resplits left between
+		 * them. All hands are valued from the one hit table the first fills.
+		 */
+		double split(int pairIndex, int resplits) {
+			return splitHand(pairIndex, (resplits + 1) / 2) + splitHand(pairIndex, resplits / 2);
+		}
+
+		/**
+		 * Value of one hand of a split, which may double if the rules allow
+		 * it, and split again if it draws another pair card
+		 */
+		private double splitHand(int pairIndex, int resplits) {
+			double ev = 0;
+			for (int i = 0; i < Composition.RANKS; i++) {
+				if (counts[i] == 0) continue;
+				double p = (double) counts[i] / remaining;
+				int hard = Composition.valueOf(pairIndex) + Composition.valueOf(i);
+				boolean soft = (pairIndex == Composition.ACE || i == Composition.ACE) && hard < 12;
+				int score = soft ? hard + 10 : hard;
+				draw(i);
+				double best = rules.allowsDoubleAfterSplit() ? doubleDown(hard, soft) : -Double.MAX_VALUE;
+				if (mustHit(score, soft)) best = Math.max(best, hit(hard, soft));
+				else {
+					best = Math.max(best, stand(score));
+					if (score < 21 && !mustStand(score, soft)) best = Math.max(best, hit(hard, soft));
+				}
+				if (i == pairIndex && resplits > 0) best = Math.max(best, split(pairIndex, resplits - 1));
+				ev = ev + p * best;
+				undraw(i);
+			}
+			return ev;
+		}
+
+		/**
+		 * Can standing be skipped because hitting is never worse? A hand that 
+		 * cannot bust on the next card (hard 11 or less, or any soft hand) and
+		 * stands to win only if the dealer busts (16 or less) gives up almost
+		 * nothing by hitting: on average, taking a card out of a large shoe
+		 * leaves the dealer's bust chance nearly unchanged, and the hand can
+		 * only improve. Not true of every small shoe, so those are not pruned.
+		 */
+		private boolean mustHit(int score, boolean soft) {
+			return !exact && score <= 16 && (soft || score <= 11);
+		}
+
+		/**
+		 * Can hitting be skipped because standing is never worse? Hitting a
+		 * hard 17 or more only pays on a shoe packed with small cards, which a
+		 * large shoe cannot be, so on those hitting is not looked at.
+		 */
+		private boolean mustStand(int score, boolean soft) {
+			return !exact && !soft && score >= 17;
+		}
+
+		private void draw(int index) {
+			counts[index]--;
+			remaining--;
+			key = key - Composition.keyUnit(index);
+			if (exact) return;
+			double[] from = outcome[depth];
+			double[] to = outcome[++depth];
+			double[] change = delta[index];
+			for (int k = 0; k < to.length; k++) to[k] = from[k] + change[k];
+		}
+
+		private void undraw(int index) {
+			counts[index]++;
+			remaining++;
+			key = key + Composition.keyUnit(index);
+			if (!exact) depth--;
+		}
+	}
+
+	/**
+	 * Open addressing table of hit values for one decision, keyed by
+	 * composition key and hand state (hard total and soft flag), so neither
+	 * a lookup nor a store boxes anything
+	 */
+	private static final class Memo {
+		private long[] keys = new long[1 << 13];
+		// hand state + 1, so 0 marks an empty slot
+		private int[] states = new int[1 << 13];
+		private double[] values = new double[1 << 13];
+		private int size;
+
+		/**
+		 * Memoized value of a state, or NaN if there is none
+		 */
+		double get(long key, int state) {
+			int mask = keys.length - 1;
+			for (int i = slot(key, state, mask); states[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == key && states[i] == state + 1) return values[i];
+			}
+			return Double.NaN;
+		}
+
+		void put(long key, int state, double value) {
+			if (2 * (size + 1) > keys.length) grow();
+			int mask = keys.length - 1;
+			int i = slot(key, state, mask);
+			while (states[i] != 0 && !(keys[i] == key && states[i] == state + 1)) i = (i + 1) & mask;
+			if (states[i] == 0) size++;
+			keys[i] = key;
+			states[i] = state + 1;
+			values[i] = value;
+		}
+
+		private static int slot(long key, int state, int mask) {
+			long hash = (key + state) * 0x9E3779B97F4A7C15L;
+			return (int) (hash >>> 40) & mask;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldStates = states;
+			double[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			states = new int[oldKeys.length * 2];
+			values = new double[oldKeys.length * 2];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldStates[i] != 0) put(oldKeys[i], oldStates[i] - 1, oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Prints move values for a two card hand from a full shoe, and how long
+	 * the decision took.
+	 * @param args first second up [rules], card values 1 (Ace) to 10, rules
+	 * as RuleSet.parse or a plain # of decks
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("Usage: ExpectedValues first second up [rules]");
+			return;
+		}
+		int first = Integer.parseInt(args[0]) - 1;
+		int second = Integer.parseInt(args[1]) - 1;
+		int up = Integer.parseInt(args[2]) - 1;
+		RuleSet rules = RuleSet.DEFAULT;
+		if (args.length > 3) {
+			if (args[3].matches("\\d+")) rules = rules.withDecks(Integer.parseInt(args[3]));
+			else rules = RuleSet.parse(args[3]);
+		}
+		int[] shoe = Composition.fullShoe(rules.getDecks());
+		shoe[first]--;
+		shoe[second]--;
+		shoe[up]--;
+
+		long start = System.nanoTime();
+		MoveValues values = new ExpectedValues(rules).evaluate(first, second, up, shoe);
+		long elapsed = System.nanoTime() - start;
+		System.out.println(values);
+		System.out.println("Best: " + values.best() + String.format(" (%.3f ms)", elapsed / 1e6));
+	}
+}
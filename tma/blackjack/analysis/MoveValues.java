@@ -0,0 +1,65 @@
+package tma.blackjack.analysis;
+
+import tma.blackjack.Move;
+
+/**
+ * MoveValues holds the expected value of each Move for a single decision, in
+ * units of the hand's original wager. Moves that are not legal for the hand
+ * have no value.
+ *
+ * @version 1.0
+ */
+public class MoveValues {
+	private final double[] values;
+
+	MoveValues() {
+		values = new double[Move.values().length];
+		java.util.Arrays.fill(values, Double.NaN);
+	}
+
+	void set(Move move, double value) {
+		values[move.ordinal()] = value;
+	}
+
+	/**
+	 * Is a move legal (and so evaluated) for this decision?
+	 * @param move Move to check
+	 * @return True if the move has a value
+	 */
+	public boolean isLegal(Move move) {
+		return !Double.isNaN(values[move.ordinal()]);
+	}
+
+	/**
+	 * Expected value of a move
+	 * @param move Move to look up
+	 * @return Expected value per unit wagered, or NaN if the move is not legal
+	 */
+	public double get(Move move) {
+		return values[move.ordinal()];
+	}
+
+	/**
+	 * The legal move with the highest expected value
+	 * @return Best move
+	 */
+	public Move best() {
+		Move best = null;
+		for (Move move : Move.values()) {
+			if (isLegal(move) && (best == null || get(move) > get(best))) best = move;
+		}
+		return best;
+	}
+
+	/**
+	 * Returns a one line description of every legal move's value
+	 * @return Description of values
+	 */
+	public String toString() {
+		String str = "";
+		for (Move move : Move.values()) {
+			if (isLegal(move)) str = str + String.format("%s: %+.4f  ", move.name(), get(move));
+		}
+		return str.trim();
+	}
+}
@@ -0,0 +1,313 @@
+package tma.blackjack.log;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+import tma.blackjack.*;
+
+/**
+ * HandLog is an append-only hand history: every shuffle, card dealt, move and
+ * final result, as fixed width binary records (see HandRecord). Records are
+ * written straight into a memory-mapped segment file, so logging one is a
+ * single store with no allocation and no system call; the OS writes the
+ * pages out. When a segment is full the log rolls over to the next one.
+ * <br><br>
+ * Most of the cost of writing to a fresh mapping is the page faults, so the
+ * next segment is created, mapped and touched on a background (virtual)
+ * thread while the current one is being filled. The writer only waits if it
+ * fills a segment before the next one is ready.
+ * <br><br>
+ * Each segment starts with a HEADER_SIZE byte header:
+ * <ul>
+ * <li>int - magic number</li>
+ * <li>short - format version</li>
+ * <li>short - record size</li>
+ * <li>int - segment number</li>
+ * <li>int - reserved</li>
+ * <li>long - full id of the round being played when the segment started, so
+ * readers can restore the round id bits records leave out</li>
+ * <li>long - reserved</li>
+ * </ul>
+ * Segments are created at full size, so the unused tail of the last one
+ * reads as records of type NONE; readers stop there.
+ * <br><br>
+ * A HandLog is not thread safe. Each table or simulator writes its own log.
+ *
+ * @version 1.0
+ */
+public class HandLog implements Closeable {
+	/** Default segment size: 8M records */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	public static final int MAGIC = 0x424A484C;	// "BJHL"
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+	private static final int PAGE_SIZE = 4096;
+	// prepares segments ahead of the writers
+	private static final ExecutorService PREPARER = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final Path dir;
+	private final String prefix;
+	private final int segmentSize;
+	private Segment current;
+	private Future<Segment> next;
+	private MappedByteBuffer buf;
+	private int position;
+	private long records;
+	private int segments;
+
+	/**
+	 * Opens a log with the default segment size. Segments are named
+	 * prefix-000000.bjh, prefix-000001.bjh, ...; existing segments are
+	 * overwritten.
+	 * @param dir Directory to write segments to (created if missing)
+	 * @param prefix Segment file name prefix
+	 * @throws IOException if the first segment cannot be created
+	 */
+	public HandLog(Path dir, String prefix) throws IOException {
+		this(dir, prefix, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens a log
+	 * @param dir Directory to write segments to (created if missing)
+	 * @param prefix Segment file name prefix
+	 * @param segmentSize Segment size in bytes, rounded down to whole pages
+	 * @throws IOException if the first segment cannot be created
+	 */
+	public HandLog(Path dir, String prefix, int segmentSize) throws IOException {
+		this.dir = dir;
+		this.prefix = prefix;
+		this.segmentSize = Math.max(1, segmentSize / PAGE_SIZE) * PAGE_SIZE;
+		Files.createDirectories(dir);
+		startSegment(prepare(0), 0);
+	}
+
+	/**
+	 * Path of a segment of a log
+	 * @param dir Log directory
+	 * @param prefix Segment file name prefix
+	 * @param segment Segment number
+	 * @return Path of segment file
+	 */
+	public static Path segmentPath(Path dir, String prefix, int segment) {
+		return dir.resolve(String.format("%s-%06d.bjh", prefix, segment));
+	}
+
+	/**
+	 * Logs a shuffle
+	 * @param round Round id
+	 * @param cards # of cards in the active pile after shuffling
+	 */
+	public void shuffle(long round, int cards) {
+		write(round, HandRecord.pack(round, HandRecord.SHUFFLE, 0, 0, cards));
+	}
+
+	/**
+	 * Logs a card dealt to a hand
+	 * @param round Round id
+	 * @param seat Seat id (or HandRecord.DEALER)
+	 * @param hand Hand the card went to
+	 * @param code Card code
+	 */
+	public void deal(long round, int seat, int hand, int code) {
+		write(round, HandRecord.pack(round, HandRecord.DEAL, seat, hand, code));
+	}
+
+	/**
+	 * Logs a card burned from the top of the shoe
+	 * @param round Round id
+	 * @param code Card code
+	 */
+	public void burn(long round, int code) {
+		write(round, HandRecord.pack(round, HandRecord.DEAL, HandRecord.BURN, 0, code));
+	}
+
+	/**
+	 * Logs a move
+	 * @param round Round id
+	 * @param seat Seat id
+	 * @param hand Hand moved on
+	 * @param move Move made
+	 */
+	public void move(long round, int seat, int hand, Move move) {
+		write(round, HandRecord.pack(round, HandRecord.MOVE, seat, hand, move.ordinal()));
+	}
+
+	/**
+	 * Logs a move along with the cards it drew, in the order they were drawn.
+	 * Call right after BJController.executeMove.
+	 * @param round Round id
+	 * @param seat Seat id
+	 * @param player Player that moved
+	 * @param hand Hand moved on
+	 * @param move Move made
+	 * @param sizeBefore # of cards in the hand before the move
+	 * @param handsBefore # of hands the player had before the move
+	 */
+	public void move(long round, int seat, BJPlayer player, int hand, Move move,
+			int sizeBefore, int handsBefore) {
+		move(round, seat, hand, move);
+		if (move == Move.Split) {
+			// one new card for the split hand, then one for the new hand
+			cards(round, seat, player, hand, 1);
+			cards(round, seat, player, handsBefore, 1);
+		} else {
+			cards(round, seat, player, hand, sizeBefore);
+		}
+	}
+
+	/**
+	 * Logs the cards of a hand from a given position on
+	 * @param round Round id
+	 * @param seat Seat id (or HandRecord.DEALER)
+	 * @param player Player holding the hand
+	 * @param hand Hand to log
+	 * @param from Position of first card to log
+	 */
+	public void cards(long round, int seat, BJPlayer player, int hand, int from) {
+		int size = player.getHand(hand).size();
+		for (int i = from; i < size; i++) {
+			deal(round, seat, hand, player.getHand(hand).get(i).getCode());
+		}
+	}
+
+	/**
+	 * Logs the final result of a hand
+	 * @param round Round id
+	 * @param seat Seat id (or HandRecord.DEALER)
+	 * @param hand Hand
+	 * @param outcome HandRecord.WIN, LOSS, PUSH, BUST, BLACKJACK, SURRENDER, or FINAL for
+	 * the dealer
+	 * @param score Final hand score
+	 */
+	public void result(long round, int seat, int hand, int outcome, int score) {
+		write(round, HandRecord.pack(round, HandRecord.RESULT, seat, hand,
+				HandRecord.resultValue(outcome, score)));
+	}
+
+	/**
+	 * Number of records written
+	 * @return # of records
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Number of segments written so far
+	 * @return # of segments
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Forces the current segment's written records out to disk
+	 */
+	public void flush() {
+		buf.force();
+	}
+
+	/**
+	 * Flushes and closes the log. Records after the last one written stay
+	 * zeroed (type NONE). The segment prepared ahead is deleted.
+	 */
+	public void close() throws IOException {
+		if (current == null) return;
+		buf.force();
+		current.channel.close();
+		current = null;
+		try {
+			Segment spare = next.get();
+			spare.channel.close();
+			Files.deleteIfExists(spare.path);
+		} catch (InterruptedException | ExecutionException e) {
+			// nothing was written to it
+		}
+	}
+
+	/**
+	 * Writes one record, rolling to the next segment if this one is full
+	 * @param round Round id of record
+	 * @param record Packed record
+	 */
+	private void write(long round, long record) {
+		if (position == segmentSize) roll(round);
+		buf.putLong(position, record);
+		position = position + HandRecord.SIZE;
+		records++;
+	}
+
+	/**
+	 * Moves on to the segment prepared ahead, and starts preparing the one
+	 * after it
+	 * @param round Round id being played
+	 */
+	private void roll(long round) {
+		try {
+			Segment ready = next.get();
+			current.channel.close();
+			startSegment(ready, round);
+		} catch (InterruptedException | ExecutionException | IOException e) {
+			throw new UncheckedIOException("Could not roll hand log",
+					(e instanceof IOException) ? (IOException) e : new IOException(e));
+		}
+	}
+
+	/**
+	 * Makes a prepared segment the current one, writes its header, and
+	 * starts preparing the next
+	 * @param segment Prepared segment
+	 * @param round Round id being played
+	 */
+	private void startSegment(Segment segment, long round) {
+		current = segment;
+		segments++;
+		buf = segment.buf;
+		buf.putInt(0, MAGIC);
+		buf.putShort(4, VERSION);
+		buf.putShort(6, (short) HandRecord.SIZE);
+		buf.putInt(8, segment.number);
+		buf.putLong(16, round);
+		position = HEADER_SIZE;
+		int number = segment.number + 1;
+		next = PREPARER.submit(() -> prepare(number));
+	}
+
+	/**
+	 * Creates a segment file, maps it, and touches every page so writing to
+	 * it will not fault
+	 * @param number Segment number
+	 * @return Prepared segment
+	 * @throws IOException if the segment cannot be created
+	 */
+	private Segment prepare(int number) throws IOException {
+		Path path = segmentPath(dir, prefix, number);
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		for (int i = 0; i < segmentSize; i = i + PAGE_SIZE) buf.put(i, (byte) 0);
+		return new Segment(number, path, channel, buf);
+	}
+
+	/**
+	 * A mapped segment file
+	 */
+	private static class Segment {
+		final int number;
+		final Path path;
+		final FileChannel channel;
+		final MappedByteBuffer buf;
+
+		Segment(int number, Path path, FileChannel channel, MappedByteBuffer buf) {
+			this.number = number;
+			this.path = path;
+			this.channel = channel;
+			this.buf = buf;
+		}
+	}
+}
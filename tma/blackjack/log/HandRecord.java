@@ -0,0 +1,173 @@
+package tma.blackjack.log;
+
+import tma.blackjack.BJPlayer;
+import tma.blackjack.Move;
+
+/**
+ * HandRecord defines the hand log's record format. Every record is a single
+ * long, packed as follows (high bits first):
+ * <ul>
+ * <li>32 bits - round id (low 32 bits; see fullRound)</li>
+ * <li>3 bits - record type (SHUFFLE, DEAL, MOVE, RESULT)</li>
+ * <li>8 bits - seat id (seat index, or DEALER / BURN)</li>
+ * <li>8 bits - hand</li>
+ * <li>13 bits - value: # of cards for SHUFFLE, card code for DEAL, Move
+ * ordinal for MOVE, and outcome * 64 + score for RESULT</li>
+ * </ul>
+ * A record of 0 has type NONE, which is what the unwritten tail of a segment
+ * reads as.
+ *
+ * @version 1.0
+ */
+public final class HandRecord {
+	/** Size of every record in bytes */
+	public static final int SIZE = 8;
+
+	/** Record types */
+	public static final int NONE = 0;
+	public static final int SHUFFLE = 1;
+	public static final int DEAL = 2;
+	public static final int MOVE = 3;
+	public static final int RESULT = 4;
+
+	/** Seat ids that are not seats */
+	public static final int DEALER = 255;
+	public static final int BURN = 254;
+
+	/** Outcomes, for RESULT records */
+	public static final int WIN = 1;
+	public static final int LOSS = 2;
+	public static final int PUSH = 3;
+	public static final int BUST = 4;
+	public static final int BLACKJACK = 5;
+	/** Outcome for the dealer's hand, which only has a score */
+	public static final int FINAL = 6;
+	/** Outcome of a hand given up with half its bet (late surrender) */
+	public static final int SURRENDER = 7;
+
+	/** Number of round id bits kept in each record */
+	public static final int ROUND_BITS = 32;
+	public static final long ROUND_MASK = (1L << ROUND_BITS) - 1;
+	/** Largest hand and value a record can hold */
+	public static final int MAX_HAND = 255;
+	public static final int MAX_VALUE = 8191;
+
+	private HandRecord() {
+	}
+
+	/**
+	 * Packs a record
+	 * @param round Round id (only the low ROUND_BITS are kept)
+	 * @param type Record type
+	 * @param seat Seat id
+	 * @param hand Hand (0-255)
+	 * @param value Value (0-8191)
+	 * @return Packed record
+	 * @throws IllegalArgumentException if seat, hand or value do not fit
+	 */
+	public static long pack(long round, int type, int seat, int hand, int value) {
+		if ((seat & ~0xFF) != 0 || (hand & ~MAX_HAND) != 0 || (value & ~MAX_VALUE) != 0)
+			throw new IllegalArgumentException("Field out of range for hand record");
+		return ((round & ROUND_MASK) << 32) | ((long) type << 29) | (seat << 21) |
+				(hand << 13) | value;
+	}
+
+	/**
+	 * Value of a RESULT record
+	 * @param outcome WIN, LOSS, PUSH, BUST, BLACKJACK, SURRENDER or FINAL
+	 * @param score Final hand score
+	 * @return Record value
+	 */
+	public static int resultValue(int outcome, int score) {
+		return (outcome << 6) | score;
+	}
+
+	/**
+	 * Outcome of a seat's hand against the dealer's, once both are done. This
+	 * is the scoring rule the simulator logs and the replay checks against.
+	 * A blackjack only counts on a hand that was never split.
+	 * @param player Seated player
+	 * @param hand Player's hand
+	 * @param dealer Dealer
+	 * @return WIN, LOSS, PUSH, BUST, BLACKJACK or SURRENDER
+	 */
+	public static int outcomeOf(BJPlayer player, int hand, BJPlayer dealer) {
+		if (player.getLastMove(hand) == Move.Surrender) return SURRENDER;
+		int score = player.getHandScore(hand);
+		int dealerScore = dealer.getHandScore(0);
+		boolean blackjack = player.numActiveHands() == 1 && player.hasBlackjack(hand);
+		if (score > 21) return BUST;
+		if (dealer.hasBlackjack(0)) return blackjack ? PUSH : LOSS;
+		if (blackjack) return BLACKJACK;
+		if (dealerScore > 21 || score > dealerScore) return WIN;
+		if (score == dealerScore) return PUSH;
+		return LOSS;
+	}
+
+	/**
+	 * Restores a record's full round id. A segment's header holds the full id
+	 * of the round it started in, and no segment spans 2^32 rounds.
+	 * @param record Packed record
+	 * @param base Round id from the segment header
+	 * @return Full round id
+	 */
+	public static long fullRound(long record, long base) {
+		return base + ((round(record) - base) & ROUND_MASK);
+	}
+
+	/**
+	 * @param record Packed record
+	 * @return Low ROUND_BITS of the round id
+	 */
+	public static long round(long record) {
+		return record >>> 32;
+	}
+
+	/**
+	 * @param record Packed record
+	 * @return Record type
+	 */
+	public static int type(long record) {
+		return (int) (record >>> 29) & 0x7;
+	}
+
+	/**
+	 * @param record Packed record
+	 * @return Seat id
+	 */
+	public static int seat(long record) {
+		return (int) (record >>> 21) & 0xFF;
+	}
+
+	/**
+	 * @param record Packed record
+	 * @return Hand
+	 */
+	public static int hand(long record) {
+		return (int) (record >>> 13) & 0xFF;
+	}
+
+	/**
+	 * @param record Packed record
+	 * @return Value
+	 */
+	public static int value(long record) {
+		return (int) record & MAX_VALUE;
+	}
+
+	/**
+	 * @param record Packed RESULT record
+	 * @return Outcome
+	 */
+	public static int outcome(long record) {
+		return value(record) >>> 6;
+	}
+
+	/**
+	 * @param record Packed RESULT record
+	 * @return Final hand score
+	 */
+	public static int score(long record) {
+		return value(record) & 0x3F;
+	}
+}
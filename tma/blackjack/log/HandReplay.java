@@ -0,0 +1,408 @@
+package tma.blackjack.log;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import tma.blackjack.*;
+import tma.deck.*;
+import tma.deck.card.*;
+
+/**
+ * HandReplay re-plays the rounds recorded in a HandLog through the game's own
+ * rules (BJController.executeMove, getRequiredMove and the scoring in
+ * HandRecord.outcomeOf) and checks that every hand comes out with the score
+ * and outcome that was logged. It is used to settle disputes over single
+ * rounds, and to check a change to the rules engine against recorded hands.
+ * <br><br>
+ * The log records every card dealt in the order it was drawn, so a round is
+ * replayed by stacking a Deck with the round's cards, dealing the opening
+ * hands, re-executing each logged move, and letting the dealer play out the
+ * round by the rules. A round mismatches if a move is not legal, a hand is left
+ * unfinished, the round draws a different number of cards than were logged,
+ * or any score or outcome differs.
+ * <br><br>
+ * Segments are mapped read-only and records are read straight out of the
+ * mapping, so nothing is copied. Each segment is replayed on its own: a
+ * segment owns the rounds that start in it, skips the tail of a round that
+ * started in the segment before, and reads on into the next segment to finish
+ * its last round. Segments are therefore replayed in parallel.
+ * <br><br>
+ * A log is replayed by the RuleSet it was played by (RuleSet.DEFAULT unless
+ * told otherwise); the log itself does not record the rules.
+ * <br><br>
+ * Usage: HandReplay [logDir] [prefix] [workers] [rules]
+ *
+ * @version 1.0
+ */
+public class HandReplay {
+	// cards stacked past the logged ones, so a round that over-draws is
+	// caught by the card count rather than running the deck dry
+	private static final int SPARE_CARDS = 12;
+	// spare cards are tens, so an over-drawing dealer stops quickly
+	private static final int SPARE_CODE = 9;
+
+	private final Path dir;
+	private final String prefix;
+	private final RuleSet rules;
+	private final int segments;
+
+	/**
+	 * Opens a log for replay, by the default rules
+	 * @param dir Directory the log was written to
+	 * @param prefix Segment file name prefix
+	 * @throws IOException if the log has no segments
+	 */
+	public HandReplay(Path dir, String prefix) throws IOException {
+		this(dir, prefix, RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Opens a log for replay
+	 * @param dir Directory the log was written to
+	 * @param prefix Segment file name prefix
+	 * @param rules Rules the logged rounds were played by
+	 * @throws IOException if the log has no segments
+	 */
+	public HandReplay(Path dir, String prefix, RuleSet rules) throws IOException {
+		this.dir = dir;
+		this.prefix = prefix;
+		this.rules = rules;
+		int count = 0;
+		while (Files.exists(HandLog.segmentPath(dir, prefix, count))) count++;
+		if (count == 0) {
+			throw new FileNotFoundException("No hand log segments in " + dir);
+		}
+		segments = count;
+	}
+
+	/**
+	 * Number of segment files in the log
+	 * @return # of segments
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Replays every segment, spread across a number of threads
+	 * @param workers # of threads to replay on
+	 * @return Merged result of every segment, in log order
+	 * @throws IOException if a segment cannot be read
+	 */
+	public ReplayResult replay(int workers) throws IOException {
+		long start = System.nanoTime();
+		List<Callable<ReplayResult>> tasks = new ArrayList<Callable<ReplayResult>>();
+		for (int i = 0; i < segments; i++) {
+			int segment = i;
+			tasks.add(() -> replaySegment(segment));
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, workers));
+		try {
+			ReplayResult result = new ReplayResult();
+			for (Future<ReplayResult> future : pool.invokeAll(tasks)) {
+				result.merge(future.get());
+			}
+			result.setElapsed(System.nanoTime() - start);
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Replay interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Replay failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Replays the rounds that start in one segment
+	 * @param segment Segment number
+	 * @return Result of the segment's rounds
+	 * @throws IOException if a segment cannot be read
+	 */
+	public ReplayResult replaySegment(int segment) throws IOException {
+		long start = System.nanoTime();
+		ReplayResult result = new ReplayResult();
+		Mapped own = map(segment);
+		if (own == null) return result;
+
+		// a round running on from the segment before belongs to that segment
+		long skip = -1;
+		Mapped prev = (segment > 0) ? map(segment - 1) : null;
+		if (prev != null) {
+			long last = prev.buf.getLong(prev.limit - HandRecord.SIZE);
+			if (HandRecord.type(last) != HandRecord.NONE) skip = HandRecord.fullRound(last, prev.base);
+		}
+
+		Round round = new Round(result, rules);
+		Mapped at = own;
+		int position = HandLog.HEADER_SIZE;
+		long current = -1;
+		long read = 0;
+		while (true) {
+			if (position == at.limit) {
+				if (at != own || segment + 1 >= segments) break;
+				at = map(segment + 1);
+				if (at == null) break;
+				position = HandLog.HEADER_SIZE;
+			}
+			long record = at.buf.getLong(position);
+			if (HandRecord.type(record) == HandRecord.NONE) break;
+			long id = HandRecord.fullRound(record, at.base);
+			if (id != current) {
+				round.replay(current);
+				current = id;
+				// rounds starting in the next segment belong to it
+				if (at != own) break;
+			}
+			if (id != skip) {
+				round.add(record);
+				read++;
+			}
+			position = position + HandRecord.SIZE;
+		}
+		round.replay(current);
+		result.addRecords(read);
+		result.setElapsed(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Maps a segment read-only and checks its header
+	 * @param segment Segment number
+	 * @return Mapped segment, or null if it was never started (e.g. the
+	 * segment a crashed writer had prepared ahead)
+	 * @throws IOException if the segment cannot be read or is not a hand log
+	 */
+	private Mapped map(int segment) throws IOException {
+		Path path = HandLog.segmentPath(dir, prefix, segment);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			int size = (int) Math.min(channel.size(), Integer.MAX_VALUE);
+			if (size < HandLog.HEADER_SIZE) return null;
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int magic = buf.getInt(0);
+			if (magic == 0) return null;
+			if (magic != HandLog.MAGIC || buf.getShort(4) != HandLog.VERSION ||
+					buf.getShort(6) != HandRecord.SIZE) {
+				throw new IOException(path + " is not a version " + HandLog.VERSION + " hand log");
+			}
+			int limit = size - (size - HandLog.HEADER_SIZE) % HandRecord.SIZE;
+			return new Mapped(buf, limit, buf.getLong(16));
+		}
+	}
+
+	/**
+	 * Entrypoint for replaying a log. Defaults to the simulator's log in the
+	 * current directory, one worker per available processor.
+	 * @param args [logDir] [prefix] [workers] [rules]
+	 */
+	public static void main(String[] args) {
+		String dir = ".";
+		String prefix = "sim";
+		int workers = Runtime.getRuntime().availableProcessors();
+		if (args.length > 0) dir = args[0];
+		if (args.length > 1) prefix = args[1];
+		if (args.length > 2) workers = Integer.parseInt(args[2]);
+		RuleSet rules = (args.length > 3) ? RuleSet.parse(args[3]) : RuleSet.DEFAULT;
+
+		try {
+			HandReplay replay = new HandReplay(Paths.get(dir), prefix, rules);
+			System.out.println("Replaying " + replay.getSegments() + " segment(s) on " +
+					workers + " worker(s)...");
+			System.out.println(replay.replay(workers));
+		} catch (IOException e) {
+			System.out.println("Could not replay hand log: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A segment mapped for reading
+	 */
+	private static class Mapped {
+		final MappedByteBuffer buf;
+		final int limit;
+		final long base;
+
+		Mapped(MappedByteBuffer buf, int limit, long base) {
+			this.buf = buf;
+			this.limit = limit;
+			this.base = base;
+		}
+	}
+
+	/**
+	 * The records of one round, and the table they are replayed on. Players,
+	 * deck and buffers are reused from round to round.
+	 */
+	private static class Round {
+		private final ReplayResult result;
+		private final RuleSet rules;
+		private final Deck deck = new Deck(1, CardContext.Blackjack);
+		private final BJPlayer dealer = new BJPlayer("Dealer", true);
+		private final BJPlayer[] players = new BJPlayer[HandRecord.BURN];
+		private final int[] seated = new int[HandRecord.BURN];
+		private int seats;
+		private long[] records = new long[64];
+		private int count;
+		private int[] codes = new int[64];
+
+		Round(ReplayResult result, RuleSet rules) {
+			this.result = result;
+			this.rules = rules;
+		}
+
+		/**
+		 * Adds a record to the round
+		 * @param record Packed record
+		 */
+		void add(long record) {
+			if (count == records.length) records = Arrays.copyOf(records, count * 2);
+			records[count++] = record;
+		}
+
+		/**
+		 * Replays the records added so far, if any, and clears the table
+		 * @param id Full round id
+		 */
+		void replay(long id) {
+			if (count == 0) return;
+			result.round();
+			String problem;
+			try {
+				problem = check();
+			} catch (RuntimeException e) {
+				problem = "replay failed: " + e;
+			}
+			if (problem != null) result.mismatch(id, problem);
+			for (int i = 0; i < seats; i++) players[seated[i]].burnCards();
+			dealer.burnCards();
+			seats = 0;
+			count = 0;
+		}
+
+		/**
+		 * Replays the round and compares it to the log
+		 * @return Description of the first difference, or null if none
+		 */
+		private String check() {
+			// stack the cards in the order they were drawn (burns aside)
+			int cards = 0;
+			for (int i = 0; i < count; i++) {
+				long record = records[i];
+				if (HandRecord.type(record) != HandRecord.DEAL || HandRecord.seat(record) == HandRecord.BURN) continue;
+				if (cards + SPARE_CARDS >= codes.length) codes = Arrays.copyOf(codes, codes.length * 2);
+				codes[cards++] = HandRecord.value(record);
+			}
+			for (int i = 0; i < SPARE_CARDS; i++) codes[cards + i] = SPARE_CODE;
+			deck.stack(codes, cards + SPARE_CARDS);
+
+			// opening deal, up to the second burn
+			int i = 0;
+			int burns = 0;
+			for (; i < count && burns < 2; i++) {
+				long record = records[i];
+				if (HandRecord.type(record) != HandRecord.DEAL) continue;
+				int seat = HandRecord.seat(record);
+				if (seat == HandRecord.BURN) burns++;
+				else BJController.dealCardToPlayer(deck.drawCard(), player(seat), 0);
+			}
+			if (burns < 2) return "opening deal is incomplete";
+
+			// logged moves, up to the results
+			for (; i < count && HandRecord.type(records[i]) != HandRecord.RESULT; i++) {
+				long record = records[i];
+				if (HandRecord.type(record) != HandRecord.MOVE) continue;
+				int seat = HandRecord.seat(record);
+				int hand = HandRecord.hand(record);
+				if (seat == HandRecord.DEALER || players[seat] == null ||
+						players[seat].getHand(0).isEmpty()) {
+					return "move for seat " + seat + ", which was not dealt in";
+				}
+				BJPlayer player = players[seat];
+				if (hand >= player.numActiveHands() || BJController.playerIsDoneWithHand(player, hand)) {
+					return "move for seat " + seat + " hand " + hand + ", which is not in play";
+				}
+				Move move = Move.convert(HandRecord.value(record));
+				if (!BJController.isLegalMove(player, hand, move, rules)) {
+					return move + " is not legal for seat " + seat + " hand " + hand;
+				}
+				BJController.executeMove(player, hand, move, deck, rules);
+			}
+
+			// every hand must be played out, unless the dealer had blackjack,
+			// and the dealer only draws if a seat is still in the round
+			boolean live = false;
+			if (!dealer.hasBlackjack(0)) {
+				for (int s = 0; s < seats; s++) {
+					BJPlayer player = players[seated[s]];
+					for (int hand = 0; hand < player.numActiveHands(); hand++) {
+						if (!BJController.playerIsDoneWithHand(player, hand)) {
+							return "seat " + seated[s] + " hand " + hand + " was not finished";
+						}
+						if (player.getHandScore(hand) <= 21) live = true;
+					}
+				}
+			}
+			if (live) {
+				BJController.executeMove(dealer, 0, BJController.getRequiredMove(dealer, 0, rules), deck, rules);
+			}
+			int drawn = cards + SPARE_CARDS - deck.activeCount();
+			if (drawn != cards) return "drew " + drawn + " cards, " + cards + " were logged";
+
+			// results
+			int expected = 1;
+			for (int s = 0; s < seats; s++) expected = expected + players[seated[s]].numActiveHands();
+			int results = 0;
+			for (; i < count; i++) {
+				long record = records[i];
+				if (HandRecord.type(record) != HandRecord.RESULT) continue;
+				results++;
+				int seat = HandRecord.seat(record);
+				int hand = HandRecord.hand(record);
+				if (seat == HandRecord.DEALER) {
+					if (HandRecord.score(record) != dealer.getHandScore(0)) {
+						return "dealer scored " + dealer.getHandScore(0) + ", " +
+								HandRecord.score(record) + " was logged";
+					}
+					continue;
+				}
+				BJPlayer player = players[seat];
+				if (player == null || player.getHand(0).isEmpty() || hand >= player.numActiveHands()) {
+					return "result for seat " + seat + " hand " + hand + ", which was not played";
+				}
+				result.hand();
+				int outcome = HandRecord.outcomeOf(player, hand, dealer);
+				int score = player.getHandScore(hand);
+				if (outcome != HandRecord.outcome(record) || score != HandRecord.score(record)) {
+					return "seat " + seat + " hand " + hand + " came out " + outcome + "/" + score +
+							", " + HandRecord.outcome(record) + "/" + HandRecord.score(record) +
+							" was logged (outcome/score)";
+				}
+			}
+			if (results != expected) return results + " results logged, " + expected + " hands played";
+			return null;
+		}
+
+		/**
+		 * Player for a seat id, seating the player if this is their first
+		 * card of the round
+		 * @param seat Seat id (or HandRecord.DEALER)
+		 * @return Player
+		 */
+		private BJPlayer player(int seat) {
+			if (seat == HandRecord.DEALER) return dealer;
+			BJPlayer player = players[seat];
+			if (player == null) {
+				player = new BJPlayer("Seat " + seat, false);
+				players[seat] = player;
+			}
+			if (player.getHand(0).isEmpty()) seated[seats++] = seat;
+			return player;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package tma.blackjack.log;
+
+import java.util.*;
+
+/**
+ * ReplayResult holds the totals gathered while replaying a hand log: how many
+ * records, rounds and hands were replayed, how many rounds did not come out
+ * the way they were logged, and how long it took. The first few mismatches
+ * are kept with a description, so a dispute or a regression can be traced
+ * back to its round.
+ *
+ * @version 1.0
+ */
+public class ReplayResult {
+	/** Most mismatches kept with a description */
+	public static final int MAX_REPORTED = 20;
+
+	private long records;
+	private long rounds;
+	private long hands;
+	private long mismatches;
+	private final List<String> reported = new ArrayList<String>();
+	private long elapsedNanos;
+
+	/**
+	 * Number of records read
+	 * @return # of records
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Number of rounds replayed
+	 * @return # of rounds
+	 */
+	public long getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Number of seat hands whose result was checked. Split hands count as
+	 * separate hands.
+	 * @return # of hands
+	 */
+	public long getHands() {
+		return hands;
+	}
+
+	/**
+	 * Number of rounds that did not replay the way they were logged
+	 * @return # of mismatched rounds
+	 */
+	public long getMismatches() {
+		return mismatches;
+	}
+
+	/**
+	 * Descriptions of the first MAX_REPORTED mismatches, in log order
+	 * @return Mismatch descriptions
+	 */
+	public List<String> getReported() {
+		return Collections.unmodifiableList(reported);
+	}
+
+	/**
+	 * Did every round replay the way it was logged?
+	 * @return True if there were no mismatches
+	 */
+	public boolean matches() {
+		return mismatches == 0;
+	}
+
+	/**
+	 * Wall clock time spent replaying
+	 * @return elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Adds the totals from another result into this one. Used to combine the
+	 * results of segments replayed in parallel; merge them in segment order to
+	 * keep the reported mismatches in log order. The elapsed time kept is the
+	 * longest of the two rather than the sum.
+	 * @param other Result to merge into this one
+	 * @return this result, for chaining
+	 */
+	public ReplayResult merge(ReplayResult other) {
+		records = records + other.records;
+		rounds = rounds + other.rounds;
+		hands = hands + other.hands;
+		mismatches = mismatches + other.mismatches;
+		for (String str : other.reported) {
+			if (reported.size() < MAX_REPORTED) reported.add(str);
+		}
+		elapsedNanos = Math.max(elapsedNanos, other.elapsedNanos);
+		return this;
+	}
+
+	/**
+	 * Returns a multi-line summary of the replay, suitable for the console
+	 * @return Description of results
+	 */
+	public String toString() {
+		String str = "Records: " + records + "\n";
+		str = str + "Rounds: " + rounds + "\n";
+		str = str + "Hands: " + hands + "\n";
+		str = str + "Mismatches: " + mismatches + "\n";
+		for (String mismatch : reported) str = str + "  " + mismatch + "\n";
+		double secs = elapsedNanos / 1e9;
+		str = str + String.format("Elapsed: %.3f s, %.0f rounds/sec",
+				secs, (secs == 0) ? 0 : rounds / secs);
+		return str;
+	}
+
+	//
+	// Package methods used by the replay to record results
+	//
+
+	void addRecords(long count) {
+		records = records + count;
+	}
+
+	void round() {
+		rounds++;
+	}
+
+	void hand() {
+		hands++;
+	}
+
+	void mismatch(long round, String problem) {
+		mismatches++;
+		if (reported.size() < MAX_REPORTED) reported.add("Round " + round + ": " + problem);
+	}
+
+	void setElapsed(long nanos) {
+		elapsedNanos = nanos;
+	}
+}
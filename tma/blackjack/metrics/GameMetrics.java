@@ -0,0 +1,225 @@
+package tma.blackjack.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+import tma.blackjack.Move;
+import tma.blackjack.log.HandRecord;
+
+/**
+ * GameMetrics counts what the tables and simulators in this process are doing:
+ * rounds played, shuffles, moves made (by Move), hands, busts and blackjacks,
+ * along with LatencyHistograms for the strategy's decisions and
+ * BJController.executeMove. Every counter is a LongAdder, so any number of
+ * tables can count into the shared instance without contending.
+ * <br><br>
+ * The metrics are registered with the platform MBean server when the class
+ * is first used, as:
+ * <ul>
+ * <li>tma.blackjack:type=GameMetrics</li>
+ * <li>tma.blackjack:type=Latency,name=Decision</li>
+ * <li>tma.blackjack:type=Latency,name=Execution</li>
+ * </ul>
+ * so jconsole or any other JMX client can watch a running process.
+ * <br><br>
+ * Metrics are on by default; run with -Dtma.blackjack.metrics=false to turn
+ * them off, in which case callers skip recording entirely.
+ *
+ * @version 1.0
+ */
+public class GameMetrics implements GameMetricsMBean {
+	/** False if metrics were turned off with -Dtma.blackjack.metrics=false */
+	public static final boolean ENABLED =
+			!"false".equalsIgnoreCase(System.getProperty("tma.blackjack.metrics"));
+	/** The process wide metrics */
+	public static final GameMetrics METRICS = new GameMetrics();
+	/** Time taken to decide on a move with BJStrategy */
+	public static final LatencyHistogram DECISIONS = new LatencyHistogram();
+	/** Time taken by BJController.executeMove */
+	public static final LatencyHistogram EXECUTIONS = new LatencyHistogram();
+	/** Shortest window getRoundsPerSecond measures over */
+	public static final long RATE_WINDOW_NANOS = 1000000000L;
+
+	private final LongAdder rounds = new LongAdder();
+	private final LongAdder shuffles = new LongAdder();
+	private final LongAdder hands = new LongAdder();
+	private final LongAdder busts = new LongAdder();
+	private final LongAdder blackjacks = new LongAdder();
+	private final LongAdder[] moves = new LongAdder[Move.values().length];
+	// rounds and time at the start of the current rate window, and the rate
+	// over the window before it
+	private long rateRounds;
+	private long rateNanos = System.nanoTime();
+	private double rate;
+
+	static {
+		if (ENABLED) register();
+	}
+
+	private GameMetrics() {
+		for (int i = 0; i < moves.length; i++) moves[i] = new LongAdder();
+	}
+
+	/**
+	 * Counts a round played
+	 */
+	public void round() {
+		rounds.increment();
+	}
+
+	/**
+	 * Counts a shuffle
+	 */
+	public void shuffle() {
+		shuffles.increment();
+	}
+
+	/**
+	 * Counts a move made
+	 * @param move Move
+	 */
+	public void move(Move move) {
+		moves[move.ordinal()].increment();
+	}
+
+	/**
+	 * Counts a finished seat hand
+	 * @param outcome How the hand ended (a HandRecord outcome)
+	 */
+	public void hand(int outcome) {
+		hands.increment();
+		if (outcome == HandRecord.BUST) busts.increment();
+		else if (outcome == HandRecord.BLACKJACK) blackjacks.increment();
+	}
+
+	public long getRounds() {
+		return rounds.sum();
+	}
+
+	/**
+	 * Rounds played per second over the last finished window of at least
+	 * RATE_WINDOW_NANOS. The first read after a window is over closes it and
+	 * starts the next, so the window runs longer if nobody reads for a while,
+	 * but reading more often never shortens it: every JMX client sees the
+	 * same rate. 0 until the first window is over.
+	 * @return Rounds per second
+	 */
+	public synchronized double getRoundsPerSecond() {
+		long now = System.nanoTime();
+		if (now - rateNanos >= RATE_WINDOW_NANOS) {
+			long count = rounds.sum();
+			rate = (count - rateRounds) / ((now - rateNanos) / 1e9);
+			rateRounds = count;
+			rateNanos = now;
+		}
+		return rate;
+	}
+
+	public long getShuffles() {
+		return shuffles.sum();
+	}
+
+	public long getHands() {
+		return hands.sum();
+	}
+
+	public long getBusts() {
+		return busts.sum();
+	}
+
+	public long getBlackjacks() {
+		return blackjacks.sum();
+	}
+
+	public long getSplits() {
+		return getMoves(Move.Split);
+	}
+
+	public long getHits() {
+		return getMoves(Move.Hit);
+	}
+
+	public long getStays() {
+		return getMoves(Move.Stay);
+	}
+
+	public long getDoubles() {
+		return getMoves(Move.Double);
+	}
+
+	public long getQuits() {
+		return getMoves(Move.Quit);
+	}
+
+	public long getSurrenders() {
+		return getMoves(Move.Surrender);
+	}
+
+	/**
+	 * Number of times a move has been made
+	 * @param move Move
+	 * @return # of moves
+	 */
+	public long getMoves(Move move) {
+		return moves[move.ordinal()].sum();
+	}
+
+	/**
+	 * Zeroes every counter and both latency histograms
+	 */
+	public synchronized void reset() {
+		rounds.reset();
+		shuffles.reset();
+		hands.reset();
+		busts.reset();
+		blackjacks.reset();
+		for (LongAdder adder : moves) adder.reset();
+		DECISIONS.reset();
+		EXECUTIONS.reset();
+		rateRounds = 0;
+		rateNanos = System.nanoTime();
+		rate = 0;
+	}
+
+	/**
+	 * Returns a multi-line summary of the metrics, suitable for the console
+	 * @return Description of metrics
+	 */
+	public String toString() {
+		String str = "Rounds: " + getRounds() + ", shuffles: " + getShuffles() + "\n";
+		str = str + "Hands: " + getHands() + ", busts: " + getBusts() +
+				", blackjacks: " + getBlackjacks() + "\n";
+		str = str + "Moves:";
+		for (Move move : Move.values()) str = str + " " + move + " " + getMoves(move);
+		str = str + "\n" + latency("Decision", DECISIONS) + "\n" + latency("Execution", EXECUTIONS);
+		return str;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. A process that
+	 * cannot register them (e.g. the names are taken) still counts.
+	 */
+	private static void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(METRICS, new ObjectName("tma.blackjack:type=GameMetrics"));
+			server.registerMBean(DECISIONS, new ObjectName("tma.blackjack:type=Latency,name=Decision"));
+			server.registerMBean(EXECUTIONS, new ObjectName("tma.blackjack:type=Latency,name=Execution"));
+		} catch (JMException e) {
+			System.err.println("Could not register metrics MBeans: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Formats a latency histogram for toString
+	 * @param name Name of histogram
+	 * @param histogram Histogram
+	 * @return One line description
+	 */
+	private static String latency(String name, LatencyHistogram histogram) {
+		return String.format("%s latency (ns): count %d, mean %.1f, p50 %d, p99 %d, p99.9 %d, max %d",
+				name, histogram.getCount(), histogram.getMeanNanos(), histogram.getP50Nanos(),
+				histogram.getP99Nanos(), histogram.getP999Nanos(), histogram.getMaxNanos());
+	}
+}
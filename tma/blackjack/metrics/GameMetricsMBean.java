@@ -0,0 +1,23 @@
+package tma.blackjack.metrics;
+
+/**
+ * JMX view of GameMetrics. Counts are totals since the process started (or
+ * the last reset).
+ *
+ * @version 1.0
+ */
+public interface GameMetricsMBean {
+	public long getRounds();
+	public double getRoundsPerSecond();
+	public long getShuffles();
+	public long getHands();
+	public long getBusts();
+	public long getBlackjacks();
+	public long getSplits();
+	public long getHits();
+	public long getStays();
+	public long getDoubles();
+	public long getQuits();
+	public long getSurrenders();
+	public void reset();
+}
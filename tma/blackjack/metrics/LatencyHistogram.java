@@ -0,0 +1,161 @@
+package tma.blackjack.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+
+/**
+ * LatencyHistogram counts timings in log-linear buckets: each power of two is
+ * split into SUB_BUCKETS equal buckets, so any value lands in a bucket no more
+ * than 12.5% wide, from 1 ns up to Long.MAX_VALUE. Recording a value is a
+ * couple of shifts to find its bucket and a LongAdder increment, so tables on
+ * many threads can record into the same histogram without contending, and
+ * nothing is allocated.
+ * <br><br>
+ * Reading the clock twice costs about as much as a decision does, so timings
+ * are sampled: start() picks one call in SAMPLE_EVERY at random to time, and
+ * recordSince() ignores the rest. Counts are of sampled calls; the mean and
+ * percentiles estimate those of every call.
+ * <br><br>
+ * Percentiles are read from a snapshot of the buckets while recording goes
+ * on, so they are approximate for the moment they are read. A percentile is
+ * reported as the top of the bucket it falls in.
+ *
+ * @version 1.0
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// values below SUB_BUCKETS get a bucket each, then SUB_BUCKETS buckets
+	// per power of two up to 2^63
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+	/** One call in this many is timed (a power of two) */
+	public static final int SAMPLE_EVERY = 64;
+	/** What start() returns for calls that are not timed */
+	public static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Creates an empty histogram
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+	}
+
+	/**
+	 * Records a timing
+	 * @param nanos Time taken, in nanoseconds (negative values count as 0)
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		counts[bucketOf(nanos)].increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Starts timing a call, if it is one of the sampled ones
+	 * @return Start time, or NOT_SAMPLED
+	 */
+	public long start() {
+		if ((ThreadLocalRandom.current().nextInt() & (SAMPLE_EVERY - 1)) != 0) return NOT_SAMPLED;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the time since a call to start(), if it was sampled
+	 * @param start Value returned by start()
+	 */
+	public void recordSince(long start) {
+		if (start != NOT_SAMPLED) record(System.nanoTime() - start);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongAdder adder : counts) count = count + adder.sum();
+		return count;
+	}
+
+	public double getMeanNanos() {
+		long count = getCount();
+		return (count == 0) ? 0 : (double) total.sum() / count;
+	}
+
+	public long getP50Nanos() {
+		return percentile(0.5);
+	}
+
+	public long getP90Nanos() {
+		return percentile(0.9);
+	}
+
+	public long getP99Nanos() {
+		return percentile(0.99);
+	}
+
+	public long getP999Nanos() {
+		return percentile(0.999);
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * Empties the histogram. Timings recorded while resetting may or may not
+	 * survive.
+	 */
+	public void reset() {
+		for (LongAdder adder : counts) adder.reset();
+		total.reset();
+		max.reset();
+	}
+
+	/**
+	 * Value below which a fraction of the recorded timings fall
+	 * @param fraction Fraction of timings (0-1)
+	 * @return Top of the bucket holding that timing, or 0 if none recorded
+	 */
+	public long percentile(double fraction) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+			count = count + snapshot[i];
+		}
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		for (int i = 0; i < BUCKETS; i++) {
+			rank = rank - snapshot[i];
+			if (rank <= 0) return Math.min(bucketTop(i), getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * Bucket a value is counted in
+	 * @param value Non-negative value
+	 * @return Bucket index
+	 */
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Largest value counted in a bucket
+	 * @param bucket Bucket index
+	 * @return Top of bucket
+	 */
+	static long bucketTop(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long bottom = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return bottom + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,19 @@
+package tma.blackjack.metrics;
+
+/**
+ * JMX view of a LatencyHistogram. All times are in nanoseconds; percentiles
+ * are accurate to within one bucket (12.5%).
+ *
+ * @version 1.0
+ */
+public interface LatencyHistogramMBean {
+	/** Number of calls timed (one in LatencyHistogram.SAMPLE_EVERY) */
+	public long getCount();
+	public double getMeanNanos();
+	public long getP50Nanos();
+	public long getP90Nanos();
+	public long getP99Nanos();
+	public long getP999Nanos();
+	public long getMaxNanos();
+	public void reset();
+}
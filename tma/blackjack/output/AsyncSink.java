@@ -0,0 +1,141 @@
+package tma.blackjack.output;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * AsyncSink hands output off to a writer thread of its own, so the threads
+ * playing the game never wait on the stream. The writer takes whatever has
+ * queued up since its last write and writes it as one batch. Text is written
+ * in the order it was handed in.
+ * <br><br>
+ * flush() waits until everything handed in before it has been written.
+ * close() flushes and stops the writer; text handed in after that is dropped.
+ * A flush and a close from different threads never race: a flush either
+ * queues its marker before the close, and is released as the writer stops,
+ * or finds the sink closed and returns at once.
+ *
+ * @version 1.0
+ */
+public class AsyncSink implements OutputSink, Closeable {
+	// queued by close(); the writer stops when it gets here
+	private static final Object STOP = new Object();
+
+	private final PrintStream out;
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+	private final Thread writer;
+	// orders flush markers against the stop marker close() queues
+	private final Object lock = new Object();
+	private volatile boolean closed;
+
+	/**
+	 * Creates a sink writing to System.out
+	 */
+	public AsyncSink() {
+		this(System.out);
+	}
+
+	/**
+	 * Creates a sink and starts its writer thread
+	 * @param out Stream to write to
+	 */
+	public AsyncSink(PrintStream out) {
+		this.out = out;
+		writer = new Thread(this::write, "AsyncSink writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public boolean isEnabled() {
+		return !closed;
+	}
+
+	public void print(String str) {
+		if (!closed) queue.add(str);
+	}
+
+	public void println(String str) {
+		if (!closed) queue.add(str + System.lineSeparator());
+	}
+
+	public void flush() {
+		CountDownLatch written = new CountDownLatch(1);
+		synchronized (lock) {
+			if (closed) return;
+			queue.add(written);
+		}
+		try {
+			written.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes everything handed in so far, and stops the writer thread
+	 */
+	public void close() {
+		synchronized (lock) {
+			if (closed) return;
+			closed = true;
+			queue.add(STOP);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writer thread: waits for text, then writes everything queued as one
+	 * batch, releasing any flush() waiting on it, until it reaches the stop
+	 * marker. Every flush marker is queued before the stop marker, so none
+	 * is left waiting.
+	 */
+	private void write() {
+		StringBuilder batch = new StringBuilder();
+		List<Object> items = new ArrayList<Object>();
+		try {
+			while (true) {
+				items.add(queue.take());
+				queue.drainTo(items);
+				for (Object item : items) {
+					if (item instanceof String) {
+						batch.append((String) item);
+					} else if (item == STOP) {
+						writeBatch(batch);
+						return;
+					} else {
+						writeBatch(batch);
+						((CountDownLatch) item).countDown();
+					}
+				}
+				writeBatch(batch);
+				items.clear();
+			}
+		} catch (InterruptedException e) {
+			// stopped from outside: release every flush still waiting
+			synchronized (lock) {
+				closed = true;
+				queue.drainTo(items);
+			}
+			for (Object item : items) {
+				if (item instanceof CountDownLatch) ((CountDownLatch) item).countDown();
+			}
+		}
+	}
+
+	/**
+	 * Writes and clears a batch
+	 * @param batch Text to write
+	 */
+	private void writeBatch(StringBuilder batch) {
+		if (batch.length() == 0) return;
+		out.append(batch);
+		out.flush();
+		batch.setLength(0);
+	}
+}
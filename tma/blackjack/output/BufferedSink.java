@@ -0,0 +1,67 @@
+package tma.blackjack.output;
+
+import java.io.PrintStream;
+
+/**
+ * BufferedSink collects output in memory and writes it to a PrintStream in
+ * batches of at least batchSize characters, so the stream is written (and
+ * locked) once per batch instead of once per line. Output shows up late, so
+ * call flush() when it has to be seen, e.g. at the end of a run; prompts for
+ * console input flush on their own.
+ *
+ * @version 1.0
+ */
+public class BufferedSink implements OutputSink {
+	/** Default batch size, in characters */
+	public static final int DEFAULT_BATCH = 64 * 1024;
+
+	private final PrintStream out;
+	private final int batchSize;
+	private final StringBuilder buf;
+
+	/**
+	 * Creates a sink writing to System.out in default size batches
+	 */
+	public BufferedSink() {
+		this(System.out, DEFAULT_BATCH);
+	}
+
+	/**
+	 * Creates a sink
+	 * @param out Stream to write batches to
+	 * @param batchSize # of characters to collect before writing
+	 */
+	public BufferedSink(PrintStream out, int batchSize) {
+		this.out = out;
+		this.batchSize = Math.max(1, batchSize);
+		buf = new StringBuilder(this.batchSize + 256);
+	}
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public synchronized void print(String str) {
+		buf.append(str);
+		if (buf.length() >= batchSize) writeBatch();
+	}
+
+	public synchronized void println(String str) {
+		buf.append(str).append(System.lineSeparator());
+		if (buf.length() >= batchSize) writeBatch();
+	}
+
+	public synchronized void flush() {
+		writeBatch();
+		out.flush();
+	}
+
+	/**
+	 * Writes out whatever has been collected
+	 */
+	private void writeBatch() {
+		if (buf.length() == 0) return;
+		out.append(buf);
+		buf.setLength(0);
+	}
+}
@@ -0,0 +1,45 @@
+package tma.blackjack.output;
+
+import java.io.PrintStream;
+
+/**
+ * ConsoleSink writes every call straight to a PrintStream (System.out by
+ * default), exactly as the CLI always has. Best for a person playing at the
+ * console; slowest for anything else.
+ *
+ * @version 1.0
+ */
+public class ConsoleSink implements OutputSink {
+	private final PrintStream out;
+
+	/**
+	 * Creates a sink writing to System.out
+	 */
+	public ConsoleSink() {
+		this(System.out);
+	}
+
+	/**
+	 * Creates a sink writing to a stream
+	 * @param out Stream to write to
+	 */
+	public ConsoleSink(PrintStream out) {
+		this.out = out;
+	}
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public void print(String str) {
+		out.print(str);
+	}
+
+	public void println(String str) {
+		out.println(str);
+	}
+
+	public void flush() {
+		out.flush();
+	}
+}
@@ -0,0 +1,22 @@
+package tma.blackjack.output;
+
+/**
+ * NullSink drops everything. Since it reports itself disabled, renderers skip
+ * building their strings too, so rendering costs nothing.
+ *
+ * @version 1.0
+ */
+public class NullSink implements OutputSink {
+	public boolean isEnabled() {
+		return false;
+	}
+
+	public void print(String str) {
+	}
+
+	public void println(String str) {
+	}
+
+	public void flush() {
+	}
+}
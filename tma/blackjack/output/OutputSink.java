@@ -0,0 +1,47 @@
+package tma.blackjack.output;
+
+/**
+ * An OutputSink is where the CLI renderer (BJController's display and print
+ * methods, and a Table's echo) writes its text. The console sink writes
+ * straight through, as the game always has; the others trade immediacy for
+ * throughput, or drop output altogether.
+ * <br><br>
+ * Renderers check isEnabled() before building any strings, so a disabled
+ * sink costs a single call. Sinks can be shared by tables on several threads,
+ * so every sink is thread safe.
+ *
+ * @version 1.0
+ */
+public interface OutputSink {
+	/**
+	 * Is anything written to this sink kept? If not, callers should skip
+	 * building output at all.
+	 * @return True if output is written somewhere
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Writes text
+	 * @param str Text to write
+	 */
+	void print(String str);
+
+	/**
+	 * Writes text and ends the line
+	 * @param str Text to write
+	 */
+	void println(String str);
+
+	/**
+	 * Ends the line
+	 */
+	default void println() {
+		println("");
+	}
+
+	/**
+	 * Makes sure everything written so far has reached its destination. Called
+	 * before waiting on console input, so prompts are seen.
+	 */
+	void flush();
+}
@@ -0,0 +1,167 @@
+package tma.blackjack.sim;
+
+/**
+ * BankrollStats follows a bankroll through a stream of bet results, in one
+ * pass and constant memory: a handful of counters however many results go
+ * in, so it can follow billions of rounds. It keeps:
+ * <ul>
+ * <li>count, total, mean and variance of the results, kept with Welford's
+ * method so the variance stays accurate over any number of results</li>
+ * <li>the bankroll's high and low water marks, relative to its start</li>
+ * <li>the largest drawdown: the biggest fall from a high water mark to a
+ * later low</li>
+ * </ul>
+ * Results are in units of the initial bet. Two stats can be merged as if the
+ * second's results had followed the first's (see merge), so parallel workers
+ * can each keep their own and combine them at the end.
+ * <br><br>
+ * Risk of ruin is estimated from the mean and variance, treating the bankroll
+ * as a random walk with drift (see getRiskOfRuin).
+ *
+ * @version 1.0
+ */
+public class BankrollStats {
+	private long count;
+	private double mean;
+	// sum of squared differences from the mean (Welford's M2)
+	private double squares;
+	private double total;
+	private double peak;
+	private double low;
+	private double drawdown;
+
+	/**
+	 * Adds the result of one bet
+	 * @param units Units won (negative if lost)
+	 */
+	public void add(double units) {
+		count++;
+		double delta = units - mean;
+		mean = mean + delta / count;
+		squares = squares + delta * (units - mean);
+		total = total + units;
+		if (total > peak) peak = total;
+		else if (total < low) low = total;
+		if (peak - total > drawdown) drawdown = peak - total;
+	}
+
+	/**
+	 * Adds another stats' results to this one, as if they had been added
+	 * after this one's. Mean and variance combine exactly (Chan et al.), as do
+	 * the water marks and the largest drawdown.
+	 * @param other Stats to add
+	 * @return this stats, for chaining
+	 */
+	public BankrollStats merge(BankrollStats other) {
+		if (other.count == 0) return this;
+		long combined = count + other.count;
+		double delta = other.mean - mean;
+		squares = squares + other.squares + delta * delta * ((double) count * other.count / combined);
+		mean = mean + delta * other.count / combined;
+		// a drawdown can start in this stream and bottom out in the other
+		drawdown = Math.max(Math.max(drawdown, other.drawdown), peak - (total + other.low));
+		peak = Math.max(peak, total + other.peak);
+		low = Math.min(low, total + other.low);
+		total = total + other.total;
+		count = combined;
+		return this;
+	}
+
+	/**
+	 * Number of results added
+	 * @return # of bets
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Sum of every result: where the bankroll ended, relative to its start
+	 * @return Units won (negative if lost)
+	 */
+	public double getTotal() {
+		return total;
+	}
+
+	/**
+	 * Mean result per bet
+	 * @return Units won per bet
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Sample variance of a single result
+	 * @return Variance, in units squared
+	 */
+	public double getVariance() {
+		if (count < 2) return 0;
+		return squares / (count - 1);
+	}
+
+	/**
+	 * Standard deviation of a single result
+	 * @return Standard deviation, in units
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Standard error of the mean
+	 * @return Standard error, in units per bet
+	 */
+	public double getStandardError() {
+		if (count < 2) return 0;
+		return Math.sqrt(getVariance() / count);
+	}
+
+	/**
+	 * Highest the bankroll got, relative to its start
+	 * @return High water mark, in units (never below 0)
+	 */
+	public double getPeak() {
+		return peak;
+	}
+
+	/**
+	 * Lowest the bankroll got, relative to its start
+	 * @return Low water mark, in units (never above 0)
+	 */
+	public double getLow() {
+		return low;
+	}
+
+	/**
+	 * Largest fall from a high water mark to a later low
+	 * @return Max drawdown, in units
+	 */
+	public double getMaxDrawdown() {
+		return drawdown;
+	}
+
+	/**
+	 * Chance of ever losing a bankroll of a given size, playing on forever at
+	 * this mean and variance: exp(-2 * mean * bankroll / variance), the ruin
+	 * probability of a random walk with that drift. A player without an edge
+	 * is sure to be ruined in the end.
+	 * @param bankroll Bankroll, in units of the initial bet
+	 * @return Risk of ruin (0-1)
+	 */
+	public double getRiskOfRuin(double bankroll) {
+		if (bankroll <= 0) return 1;
+		double variance = getVariance();
+		if (mean <= 0 || variance == 0) return (mean > 0) ? 0 : 1;
+		return Math.min(1, Math.exp(-2 * mean * bankroll / variance));
+	}
+
+	/**
+	 * Returns a one line summary, suitable for the console
+	 * @return Description of stats
+	 */
+	public String toString() {
+		return String.format("mean %+.4f, sd %.3f units per bet, max drawdown %.1f units",
+				getMean(), getStandardDeviation(), getMaxDrawdown());
+	}
+}
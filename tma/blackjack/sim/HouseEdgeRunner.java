@@ -0,0 +1,174 @@
+package tma.blackjack.sim;
+
+import java.util.*;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+import tma.blackjack.*;
+
+/**
+ * HouseEdgeRunner measures the house edge of many RuleSets side by side and
+ * prints them as a table. Every rule set is played for the same number of
+ * rounds, with the same strategy and seats. Each rule set's rounds are split
+ * into one part per worker, and the parts of every rule set go to a single
+ * ForkJoinPool together, so workers stay busy until the last part is done,
+ * however the rule sets differ in speed. Each part plays on a Simulator of
+ * its own, and the parts are merged per rule set at the end.
+ * <br><br>
+ * Seats play the shared strategy as flat basic strategy, without count
+ * based deviations, so every rule set is priced the same way. The strategy
+ * grid is written for the default rules; under other rules a move the rules
+ * do not allow falls back to hit below 17, stay otherwise.
+ * <br><br>
+ * Rule sets are given as RuleSet.parse tokens, one rule set per argument.
+ * Without any, the default rules and one variation of each rule are run.
+ * <br><br>
+ * With a seed set, every part shuffles from its own generator, split from a
+ * master SplittableRandom in task order, so a run can be repeated exactly
+ * with the same seed and number of workers. Every rule set gets the same
+ * streams, so the rule sets are compared on the same shuffles (common random
+ * numbers) and the changes between them are less noisy. From the command
+ * line the seed is -Dtma.blackjack.seed, or picked at random and printed.
+ * <br><br>
+ * Usage: HouseEdgeRunner [rounds] [workers] [seats] [rules...]
+ *
+ * @version 1.0
+ */
+public class HouseEdgeRunner {
+	private final int workers;
+	private final int seats;
+	private Long seed;
+
+	/**
+	 * Creates a runner
+	 * @param workers # of threads to run on
+	 * @param seats # of AI players at each table
+	 */
+	public HouseEdgeRunner(int workers, int seats) {
+		this.workers = Math.max(1, workers);
+		this.seats = seats;
+	}
+
+	/**
+	 * Makes every run from now on reproducible from a master seed
+	 * @param seed Master seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Plays a number of rounds under each rule set
+	 * @param rules Rule sets to measure
+	 * @param rounds # of rounds to play per rule set
+	 * @return Result of each rule set, in the order given
+	 * @throws InterruptedException if interrupted while waiting on the workers
+	 */
+	public List<SimulationResult> run(List<RuleSet> rules, long rounds) throws InterruptedException {
+		List<Callable<SimulationResult>> tasks = new ArrayList<Callable<SimulationResult>>();
+		for (RuleSet set : rules) {
+			// each rule set splits the same streams off a fresh master
+			SplittableRandom master = (seed == null) ? null : new SplittableRandom(seed);
+			for (int part = 0; part < workers; part++) {
+				long share = rounds * (part + 1) / workers - rounds * part / workers;
+				SplittableRandom random = (master == null) ? null : master.split();
+				tasks.add(() -> new Simulator(seats, set, BJStrategy.getInstance(), random).run(share));
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			long start = System.nanoTime();
+			List<Future<SimulationResult>> done = pool.invokeAll(tasks);
+			long elapsed = System.nanoTime() - start;
+			List<SimulationResult> results = new ArrayList<SimulationResult>();
+			for (int i = 0; i < rules.size(); i++) {
+				SimulationResult result = new SimulationResult();
+				for (int part = 0; part < workers; part++) {
+					result.merge(done.get(i * workers + part).get());
+				}
+				result.setElapsed(elapsed);
+				results.add(result);
+			}
+			return results;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Simulation failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * A rule set and one variation of each of its rules: the other soft 17
+	 * rule, double after split, split limits, surrender, a 6:5 blackjack, the
+	 * number of decks, a shallower cut and a continuous shuffler
+	 * @param base Rule set to vary
+	 * @return base, followed by its variations
+	 */
+	public static List<RuleSet> variations(RuleSet base) {
+		List<RuleSet> rules = new ArrayList<RuleSet>();
+		rules.add(base);
+		rules.add(base.withHitSoft17(!base.hitsSoft17()));
+		rules.add(base.withDoubleAfterSplit(!base.allowsDoubleAfterSplit()));
+		rules.add(base.withMaxHands(4));
+		rules.add(base.withMaxHands(2));
+		rules.add(base.withSurrender(!base.allowsSurrender()));
+		rules.add(base.withBlackjackPayout(1.2));
+		rules.add(base.withDecks(1));
+		rules.add(base.withDecks(2));
+		rules.add(base.withDecks(8));
+		rules.add(base.withPenetration(0.75));
+		rules.add(base.withContinuousShuffle(!base.usesContinuousShuffle()));
+		return rules;
+	}
+
+	/**
+	 * Formats results as a table, one line per rule set, with the change in
+	 * edge from the first rule set and the standard deviation of a bet
+	 * @param rules Rule sets
+	 * @param results Result of each rule set
+	 * @return Table
+	 */
+	public static String table(List<RuleSet> rules, List<SimulationResult> results) {
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%-30s %12s %9s %8s %9s %6s%n", "Rules", "Bets", "Edge", "+/-", "Change", "SD"));
+		double base = results.isEmpty() ? 0 : results.get(0).getHouseEdge();
+		for (int i = 0; i < rules.size(); i++) {
+			SimulationResult result = results.get(i);
+			table.append(String.format("%-30s %12d %8.3f%% %7.3f%% %+8.3f%% %6.3f%n", rules.get(i),
+					result.getBets(), 100 * result.getHouseEdge(), 100 * result.getHouseEdgeError(),
+					100 * (result.getHouseEdge() - base), result.getBankroll().getStandardDeviation()));
+		}
+		return table.toString();
+	}
+
+	/**
+	 * Entrypoint for house edge runs. Defaults to one worker per available
+	 * processor and the default rules with their variations.
+	 * @param args [rounds] [workers] [seats] [rules...]
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long rounds = 1000000;
+		int workers = Runtime.getRuntime().availableProcessors();
+		int seats = 1;
+		if (args.length > 0) rounds = Long.parseLong(args[0]);
+		if (args.length > 1) workers = Integer.parseInt(args[1]);
+		if (args.length > 2) seats = Integer.parseInt(args[2]);
+		List<RuleSet> rules = new ArrayList<RuleSet>();
+		for (int i = 3; i < args.length; i++) rules.add(RuleSet.parse(args[i]));
+		if (rules.isEmpty()) rules = variations(RuleSet.DEFAULT);
+		Long seed = Long.getLong("tma.blackjack.seed");
+		if (seed == null) seed = new SplittableRandom().nextLong();
+
+		System.out.println(BJStrategy.getInstance().loadReport());
+		System.out.println("Simulating " + rounds + " rounds of " + rules.size() + " rule set(s) on " +
+				workers + " worker(s), " + seats + " seat(s), seed " + seed + "...");
+		long start = System.nanoTime();
+		HouseEdgeRunner runner = new HouseEdgeRunner(workers, seats);
+		runner.setSeed(seed);
+		List<SimulationResult> results = runner.run(rules, rounds);
+		System.out.print(table(rules, results));
+		System.out.println(String.format("Elapsed: %.3f s", (System.nanoTime() - start) / 1e9));
+	}
+}
@@ -0,0 +1,137 @@
+package tma.blackjack.sim;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+import tma.blackjack.*;
+
+/**
+ * ParallelSimulator splits a simulation run across several workers using a
+ * ForkJoinPool. Each worker gets its own Simulator, and with it its own Deck
+ * and players, so workers share nothing mutable while playing (the shared
+ * BJStrategy is read-only). Partial results are merged as the fork-join tasks
+ * complete.
+ * <br><br>
+ * With a seed set, the master SplittableRandom made from it is split once
+ * per worker, in a fixed order as the task tree is built, so every worker
+ * shuffles from its own independent stream, and a run with the same seed and
+ * number of workers plays exactly the same rounds. Without one, workers
+ * shuffle from ThreadLocalRandom.
+ * <br><br>
+ * Usage: ParallelSimulator [rounds] [workers] [seats] [decks] [seed]
+ *
+ * @version 1.0
+ */
+public class ParallelSimulator {
+	private final int workers;
+	private final int seats;
+	private final RuleSet rules;
+	private Long seed;
+
+	/**
+	 * Creates a parallel simulator, playing by the default rules
+	 * @param workers # of workers (threads) to split the run across
+	 * @param seats # of AI players at each worker's table
+	 * @param decks # of decks in each worker's shoe
+	 */
+	public ParallelSimulator(int workers, int seats, int decks) {
+		this(workers, seats, RuleSet.DEFAULT.withDecks(decks));
+	}
+
+	/**
+	 * Creates a parallel simulator
+	 * @param workers # of workers (threads) to split the run across
+	 * @param seats # of AI players at each worker's table
+	 * @param rules Rules every worker's table plays by
+	 */
+	public ParallelSimulator(int workers, int seats, RuleSet rules) {
+		this.workers = Math.max(1, workers);
+		this.seats = seats;
+		this.rules = rules;
+	}
+
+	/**
+	 * Makes every run from now on reproducible from a master seed
+	 * @param seed Master seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Plays a number of rounds, split as evenly as possible across workers
+	 * @param rounds Total # of rounds to play
+	 * @return Merged results of every worker
+	 */
+	public SimulationResult run(long rounds) {
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			long start = System.nanoTime();
+			SplittableRandom random = (seed == null) ? null : new SplittableRandom(seed);
+			SimulationResult result = pool.invoke(new SimulationTask(rounds, workers, random));
+			// report wall clock time of the whole run
+			result.setElapsed(System.nanoTime() - start);
+			return result;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Fork-join task that halves its share of the workers until a single
+	 * worker is left, which then plays its rounds on its own Simulator. The
+	 * left half gets a generator split from the task's, and the right half
+	 * keeps the rest.
+	 */
+	@SuppressWarnings("serial")
+	private class SimulationTask extends RecursiveTask<SimulationResult> {
+		private final long rounds;
+		private final int parts;
+		private final SplittableRandom random;
+
+		SimulationTask(long rounds, int parts, SplittableRandom random) {
+			this.rounds = rounds;
+			this.parts = parts;
+			this.random = random;
+		}
+
+		protected SimulationResult compute() {
+			if (parts == 1) {
+				return new Simulator(seats, rules, BJStrategy.getInstance(), random).run(rounds);
+			}
+			int leftParts = parts / 2;
+			long leftRounds = rounds * leftParts / parts;
+			SplittableRandom leftRandom = (random == null) ? null : random.split();
+			SimulationTask left = new SimulationTask(leftRounds, leftParts, leftRandom);
+			SimulationTask right = new SimulationTask(rounds - leftRounds, parts - leftParts, random);
+			left.fork();
+			SimulationResult result = right.compute();
+			return result.merge(left.join());
+		}
+	}
+
+	/**
+	 * Entrypoint for parallel simulation runs. Defaults to one worker per
+	 * available processor, and a seed picked at random (and printed, so the
+	 * run can be repeated).
+	 * @param args [rounds] [workers] [seats] [decks] [seed]
+	 */
+	public static void main(String[] args) {
+		long rounds = 10000000;
+		int workers = Runtime.getRuntime().availableProcessors();
+		int seats = 1;
+		int decks = 6;
+		if (args.length > 0) rounds = Long.parseLong(args[0]);
+		if (args.length > 1) workers = Integer.parseInt(args[1]);
+		if (args.length > 2) seats = Integer.parseInt(args[2]);
+		if (args.length > 3) decks = Integer.parseInt(args[3]);
+		long seed = (args.length > 4) ? Long.parseLong(args[4]) : new SplittableRandom().nextLong();
+
+		System.out.println(BJStrategy.getInstance().loadReport());
+		System.out.println("Simulating " + rounds + " rounds on " + workers +
+				" worker(s), " + seats + " seat(s), " + decks + " deck(s), seed " + seed + "...");
+		ParallelSimulator sim = new ParallelSimulator(workers, seats, decks);
+		sim.setSeed(seed);
+		System.out.println(sim.run(rounds));
+	}
+}
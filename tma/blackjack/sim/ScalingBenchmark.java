@@ -0,0 +1,49 @@
+package tma.blackjack.sim;
+
+/**
+ * ScalingBenchmark measures how well ParallelSimulator scales with the number
+ * of workers. Every step keeps the rounds per worker fixed (weak scaling), so
+ * perfect scaling shows up as hands/sec growing in step with the worker count
+ * and an efficiency of 100%.
+ * <br><br>
+ * Worker counts double from 1 up to the maximum (default: available
+ * processors, capped at 64). A warm up run is played first so the JIT has
+ * compiled the hot path before anything is measured.
+ * <br><br>
+ * Usage: ScalingBenchmark [roundsPerWorker] [maxWorkers]
+ *
+ * @version 1.0
+ */
+public class ScalingBenchmark {
+	public static void main(String[] args) {
+		long perWorker = 2000000;
+		int maxWorkers = Math.min(64, Runtime.getRuntime().availableProcessors());
+		if (args.length > 0) perWorker = Long.parseLong(args[0]);
+		if (args.length > 1) maxWorkers = Integer.parseInt(args[1]);
+
+		// warm up
+		new ParallelSimulator(maxWorkers, 1, 6).run(perWorker / 4 * maxWorkers);
+
+		System.out.println("workers     hands/sec    speedup  efficiency");
+		double base = 0;
+		for (int workers = 1; workers <= maxWorkers; workers = nextStep(workers, maxWorkers)) {
+			SimulationResult result = new ParallelSimulator(workers, 1, 6).run(perWorker * workers);
+			double rate = result.handsPerSecond();
+			if (workers == 1) base = rate;
+			double speedup = rate / base;
+			System.out.println(String.format("%7d %13.0f %9.2fx %10.1f%%",
+					workers, rate, speedup, 100 * speedup / workers));
+		}
+	}
+
+	/**
+	 * Doubles the worker count, making sure the maximum itself is measured
+	 * @param workers Current worker count
+	 * @param max Maximum worker count
+	 * @return Next worker count to measure
+	 */
+	private static int nextStep(int workers, int max) {
+		if (workers == max) return max + 1;
+		return Math.min(workers * 2, max);
+	}
+}
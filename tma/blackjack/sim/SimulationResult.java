@@ -0,0 +1,254 @@
+package tma.blackjack.sim;
+
+/**
+ * SimulationResult holds the totals gathered while running a simulation: how
+ * many rounds and hands were played, how those hands ended, and how long it
+ * took to play them, and what the seats won or lost in units of their
+ * initial bet. Results are plain counters, so they are cheap to update from
+ * the simulation loop. Bet results are followed by a BankrollStats, as if one
+ * bankroll had played every seat's bets in turn.
+ *
+ * @version 1.0
+ */
+public class SimulationResult {
+	// bankroll risk of ruin is reported for, in units of the bet
+	private static final int RUIN_UNITS = 100;
+	private long rounds;
+	private long hands;
+	private long wins;
+	private long losses;
+	private long pushes;
+	private long busts;
+	private long blackjacks;
+	private long surrenders;
+	private final BankrollStats bankroll = new BankrollStats();
+	private long elapsedNanos;
+
+	/**
+	 * Number of rounds played
+	 * @return # of rounds
+	 */
+	public long getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Number of player hands played. Split hands count as separate hands.
+	 * @return # of hands
+	 */
+	public long getHands() {
+		return hands;
+	}
+
+	/**
+	 * Number of player hands that beat the dealer (including blackjacks)
+	 * @return # of winning hands
+	 */
+	public long getWins() {
+		return wins;
+	}
+
+	/**
+	 * Number of player hands that lost to the dealer (including busts)
+	 * @return # of losing hands
+	 */
+	public long getLosses() {
+		return losses;
+	}
+
+	/**
+	 * Number of player hands that tied the dealer
+	 * @return # of pushed hands
+	 */
+	public long getPushes() {
+		return pushes;
+	}
+
+	/**
+	 * Number of player hands that went over 21
+	 * @return # of busted hands
+	 */
+	public long getBusts() {
+		return busts;
+	}
+
+	/**
+	 * Number of player hands that won with a blackjack
+	 * @return # of blackjacks
+	 */
+	public long getBlackjacks() {
+		return blackjacks;
+	}
+
+	/**
+	 * Number of player hands that were surrendered (counted as losses)
+	 * @return # of surrendered hands
+	 */
+	public long getSurrenders() {
+		return surrenders;
+	}
+
+	/**
+	 * Number of initial bets settled: one per seat per round, however many
+	 * hands the seat split to
+	 * @return # of bets
+	 */
+	public long getBets() {
+		return bankroll.getCount();
+	}
+
+	/**
+	 * What the seats won in total, in units of the initial bet. Doubled and
+	 * split hands put up more units, and blackjacks pay what the rules say.
+	 * @return Net units won (negative if lost)
+	 */
+	public double getNet() {
+		return bankroll.getTotal();
+	}
+
+	/**
+	 * The house's edge: its expected win per initial bet
+	 * @return House edge as a fraction of the initial bet
+	 */
+	public double getHouseEdge() {
+		return -bankroll.getMean();
+	}
+
+	/**
+	 * Standard error of the house edge, from the spread of the results of
+	 * single bets
+	 * @return Standard error, as a fraction of the initial bet
+	 */
+	public double getHouseEdgeError() {
+		return bankroll.getStandardError();
+	}
+
+	/**
+	 * Streaming statistics of the bet results: mean, variance, drawdown and
+	 * risk of ruin
+	 * @return Bankroll statistics
+	 */
+	public BankrollStats getBankroll() {
+		return bankroll;
+	}
+
+	/**
+	 * Wall clock time spent playing rounds
+	 * @return elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Hands played per second of elapsed time
+	 * @return hands per second, or 0 if no time has been recorded
+	 */
+	public double handsPerSecond() {
+		if (elapsedNanos == 0) return 0;
+		return hands / (elapsedNanos / 1e9);
+	}
+
+	/**
+	 * Adds the totals from another result into this one. Used to combine the
+	 * partial results of parallel workers. Since workers run side by side, the
+	 * elapsed time kept is the longest of the two rather than the sum.
+	 * @param other Result to merge into this one
+	 * @return this result, for chaining
+	 */
+	public SimulationResult merge(SimulationResult other) {
+		rounds = rounds + other.rounds;
+		hands = hands + other.hands;
+		wins = wins + other.wins;
+		losses = losses + other.losses;
+		pushes = pushes + other.pushes;
+		busts = busts + other.busts;
+		blackjacks = blackjacks + other.blackjacks;
+		surrenders = surrenders + other.surrenders;
+		bankroll.merge(other.bankroll);
+		elapsedNanos = Math.max(elapsedNanos, other.elapsedNanos);
+		return this;
+	}
+
+	/**
+	 * Returns a multi-line summary of the results, suitable for the console
+	 * @return Description of results
+	 */
+	public String toString() {
+		String str = "Rounds: " + rounds + "\n";
+		str = str + "Hands: " + hands + "\n";
+		str = str + "Wins: " + wins + " (" + percent(wins) + ")\n";
+		str = str + "Losses: " + losses + " (" + percent(losses) + ")\n";
+		str = str + "Pushes: " + pushes + " (" + percent(pushes) + ")\n";
+		str = str + "Busts: " + busts + " (" + percent(busts) + ")\n";
+		str = str + "Blackjacks: " + blackjacks + " (" + percent(blackjacks) + ")\n";
+		if (surrenders > 0) str = str + "Surrenders: " + surrenders + " (" + percent(surrenders) + ")\n";
+		str = str + String.format("Net: %+.1f units, house edge %.3f%% (+/- %.3f%%)\n",
+				getNet(), 100 * getHouseEdge(), 100 * getHouseEdgeError());
+		str = str + String.format("Bankroll: %s, risk of ruin %.2f%% (%d units)\n",
+				bankroll, 100 * bankroll.getRiskOfRuin(RUIN_UNITS), RUIN_UNITS);
+		str = str + String.format("Elapsed: %.3f s, %.0f hands/sec",
+				elapsedNanos / 1e9, handsPerSecond());
+		return str;
+	}
+
+	//
+	// Package methods used by the simulator to record results
+	//
+
+	void round() {
+		rounds++;
+	}
+
+	void win() {
+		hands++;
+		wins++;
+	}
+
+	void blackjack() {
+		blackjacks++;
+		win();
+	}
+
+	void loss() {
+		hands++;
+		losses++;
+	}
+
+	void bust() {
+		busts++;
+		loss();
+	}
+
+	void push() {
+		hands++;
+		pushes++;
+	}
+
+	void surrender() {
+		surrenders++;
+		loss();
+	}
+
+	void settle(double units) {
+		bankroll.add(units);
+	}
+
+	void addElapsed(long nanos) {
+		elapsedNanos = elapsedNanos + nanos;
+	}
+
+	void setElapsed(long nanos) {
+		elapsedNanos = nanos;
+	}
+
+	/**
+	 * Formats a count as a percentage of hands played
+	 * @param count Count to format
+	 * @return Percentage string
+	 */
+	private String percent(long count) {
+		if (hands == 0) return "0.00%";
+		return String.format("%.2f%%", 100.0 * count / hands);
+	}
+}
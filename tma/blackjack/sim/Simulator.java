@@ -0,0 +1,350 @@
+package tma.blackjack.sim;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+import tma.blackjack.*;
+import tma.blackjack.log.*;
+import tma.blackjack.metrics.GameMetrics;
+import tma.deck.*;
+import tma.deck.card.*;
+
+/**
+ * The Simulator class plays rounds of blackjack without the CLI. Every seat is
+ * played by the AI (BJStrategy), and the game is played by a RuleSet (the
+ * CLI game's rules unless told otherwise). Every seat makes its bet each
+ * round, and its hands are paid by BJController; results go into the
+ * SimulationResult in units of the bet. Seats play flat basic strategy
+ * unless deviations are turned on (see setDeviations), in which case they
+ * apply the strategy's count based deviations at the Hi-Lo true count of the
+ * cards a player at the table could have seen. Nothing is printed while
+ * rounds are being played; totals are gathered into a SimulationResult
+ * instead. Rounds can also be recorded to a HandLog. Rounds, moves, outcomes
+ * and timings are counted in GameMetrics.
+ * <br><br>
+ * Given a SplittableRandom, a simulator shuffles from it alone, so the same
+ * seed plays the same rounds every time.
+ * <br><br>
+ * Usage: Simulator [rounds] [seats] [decks] [logDir] [seed]
+ *
+ * @version 1.0
+ */
+public class Simulator {
+	private static final long DEFAULT_ROUNDS = 1000000;
+	private static final int DEFAULT_SEATS = 1;
+	private static final int DEFAULT_DECKS = 6;
+	// most cards a dealer hand can take: A,A,A,A,2,2,2,2,3 (and 1 spare)
+	private static final int DEALER_RESERVE = 10;
+
+	private final BJStrategy strategy;
+	private final RuleSet rules;
+	private final Deck deck;
+	private final BJPlayer[] players;
+	private final int dealer;
+	private final int reshuffleAt;
+	private HandLog log;
+	private long round;
+	private boolean deviations;
+	// Hi-Lo count of exposed cards from rounds done since the last shuffle
+	private int seenCount;
+
+	/**
+	 * Creates a simulator with a number of AI seats, playing against a dealer
+	 * from a shoe of the given number of decks, by the default rules
+	 * @param seats # of AI players at the table
+	 * @param decks # of decks in the shoe
+	 * @param strategy Strategy used by every AI seat
+	 */
+	public Simulator(int seats, int decks, BJStrategy strategy) {
+		this(seats, RuleSet.DEFAULT.withDecks(decks), strategy);
+	}
+
+	/**
+	 * Creates a simulator with a number of AI seats, playing against a dealer
+	 * by a given set of rules
+	 * @param seats # of AI players at the table
+	 * @param rules Rules of the game, including the shoe
+	 * @param strategy Strategy used by every AI seat
+	 */
+	public Simulator(int seats, RuleSet rules, BJStrategy strategy) {
+		this(seats, rules, strategy, null);
+	}
+
+	/**
+	 * Creates a simulator with a number of AI seats, playing against a dealer
+	 * by a given set of rules, from a shoe shuffled by a given generator
+	 * @param seats # of AI players at the table
+	 * @param rules Rules of the game, including the shoe
+	 * @param strategy Strategy used by every AI seat
+	 * @param random Generator the shoe is shuffled with (owned by the
+	 * simulator from now on), or null for ThreadLocalRandom
+	 */
+	public Simulator(int seats, RuleSet rules, BJStrategy strategy, SplittableRandom random) {
+		if (seats < 1) seats = 1;
+		this.strategy = strategy;
+		this.rules = rules;
+		deck = new Deck(rules.getDecks(), CardContext.Blackjack, random);
+		deck.setContinuousShuffle(rules.usesContinuousShuffle());
+		players = new BJPlayer[seats + 1];
+		for (int i = 0; i < seats; i++) {
+			players[i] = new BJPlayer("Seat " + (i + 1), false);
+		}
+		dealer = seats;
+		players[dealer] = new BJPlayer("Dealer", true);
+		// keep a quarter deck per player in reserve so a round can never
+		// run the shoe dry
+		reshuffleAt = rules.reshuffleAt(players.length * 13);
+	}
+
+	/**
+	 * Records every round played from now on to a hand log. Seats are logged
+	 * by index, and round ids count up from 0.
+	 * @param log Log to write to, or null to stop logging
+	 */
+	public void setLog(HandLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Turns count based deviations on or off (off by default). With them on,
+	 * seats count only the cards they could have seen: every seat's cards,
+	 * the dealer's up card, and the dealer's hole card once turned over at
+	 * the end of a round. Burned cards are never seen.
+	 * @param deviations True to play deviations, false for basic strategy
+	 */
+	public void setDeviations(boolean deviations) {
+		this.deviations = deviations;
+	}
+
+	/**
+	 * Plays a number of rounds and returns the totals
+	 * @param rounds # of rounds to play
+	 * @return Results of all rounds played
+	 */
+	public SimulationResult run(long rounds) {
+		SimulationResult result = new SimulationResult();
+		long start = System.nanoTime();
+		for (long i = 0; i < rounds; i++) {
+			playRound(result);
+		}
+		result.addElapsed(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Plays a single round: deals, plays every seat, plays the dealer, scores
+	 * each hand into the result, and burns all hands.
+	 * @param result Result to record hand outcomes in
+	 */
+	public void playRound(SimulationResult result) {
+		if (deck.activeCount() < reshuffleAt) shuffle();
+
+		// deal a card to each player, burn one, & repeat (same as CLI)
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < players.length; j++) {
+				Card card = deck.drawCard();
+				BJController.dealCardToPlayer(card, players[j], 0);
+				if (log != null) log.deal(round, seatId(j), 0, card.getCode());
+			}
+			Card burn = deck.drawCard();
+			deck.burnCard(burn);
+			if (log != null) log.burn(round, burn.getCode());
+		}
+
+		BJPlayer house = players[dealer];
+		int upCard = BJController.cardValue(house.getHand(0).get(0));
+		boolean dealerBlackjack = house.hasBlackjack(0);
+
+		// play each seat, unless the dealer already has blackjack
+		boolean live = false;
+		for (int i = 0; i < dealer && !dealerBlackjack; i++) {
+			for (int j = 0; j < players[i].numActiveHands(); j++) {
+				playHand(i, j, upCard);
+				if (players[i].getHandScore(j) <= 21) live = true;
+			}
+		}
+
+		// dealer only has to draw if someone is still in the round
+		if (live) {
+			ensureCards(DEALER_RESERVE);
+			long start = GameMetrics.ENABLED ? GameMetrics.EXECUTIONS.start() : 0;
+			BJController.executeMove(house, 0, BJController.getRequiredMove(house, 0, rules), deck, rules);
+			if (GameMetrics.ENABLED) GameMetrics.EXECUTIONS.recordSince(start);
+			if (log != null) log.cards(round, HandRecord.DEALER, house, 0, 2);
+		}
+
+		scoreRound(result);
+
+		if (deviations) {
+			for (int i = 0; i < players.length; i++) seenCount = seenCount + tableCount(players[i]);
+			// a continuous shuffler takes the cards straight back
+			if (deck.isContinuousShuffle()) seenCount = 0;
+		}
+		for (int i = 0; i < players.length; i++) {
+			players[i].burnCards(deck);
+		}
+		result.round();
+		if (GameMetrics.ENABLED) GameMetrics.METRICS.round();
+		round++;
+	}
+
+	/**
+	 * Plays one of a seat's hands to completion using the AI strategy
+	 * @param seat Seat to play for
+	 * @param hand Hand to play
+	 * @param upCard Value of the card the dealer is showing
+	 */
+	private void playHand(int seat, int hand, int upCard) {
+		BJPlayer player = players[seat];
+		while (!BJController.playerIsDoneWithHand(player, hand)) {
+			int trueCount = deviations ? exposedTrueCount() : 0;
+			long start = GameMetrics.ENABLED ? GameMetrics.DECISIONS.start() : 0;
+			Move move = strategy.getRecommendedMove(player, hand, upCard, trueCount);
+			if (GameMetrics.ENABLED) GameMetrics.DECISIONS.recordSince(start);
+			if (move == null || !BJController.isLegalMove(player, hand, move, rules)) {
+				// e.g. table says double on a 3 card hand
+				move = (player.getHandScore(hand) < 17) ? Move.Hit : Move.Stay;
+			}
+			ensureCards(2);
+			int size = player.getHand(hand).size();
+			int hands = player.numActiveHands();
+			if (GameMetrics.ENABLED) {
+				GameMetrics.METRICS.move(move);
+				start = GameMetrics.EXECUTIONS.start();
+			}
+			BJController.executeMove(player, hand, move, deck, rules);
+			if (GameMetrics.ENABLED) GameMetrics.EXECUTIONS.recordSince(start);
+			if (log != null) log.move(round, seat, player, hand, move, size, hands);
+		}
+	}
+	
+	/**
+	 * Hi-Lo true count of every exposed card since the last shuffle: rounds
+	 * already done, every seat's cards on the table, and the dealer's up card.
+	 * Unlike the deck's own count, it leaves out burns and the hole card.
+	 * @return True count, rounded down
+	 */
+	private int exposedTrueCount() {
+		int running = seenCount;
+		for (int i = 0; i < dealer; i++) running = running + tableCount(players[i]);
+		// the up card only; the hole card is still face down
+		running = running + Deck.hiLoOf(players[dealer].getHand(0).get(0).getRank().ordinal());
+		return (int) Math.floor(running * 52.0 / Math.max(1, deck.activeCount()));
+	}
+
+	/**
+	 * Hi-Lo count of a player's cards on the table
+	 * @param player Player
+	 * @return Running count of the cards
+	 */
+	private static int tableCount(BJPlayer player) {
+		int count = 0;
+		for (int i = 0; i < player.numActiveHands(); i++) {
+			ArrayList<Card> cards = player.getHand(i);
+			for (int j = 0; j < cards.size(); j++) count = count + Deck.hiLoOf(cards.get(j).getRank().ordinal());
+		}
+		return count;
+	}
+
+	/**
+	 * Makes sure the shoe has enough cards left for the next draw. Long runs
+	 * of splits (e.g. splitting tens at a high count) can use up the reserve, in
+	 * which case the discards are shuffled back in mid round, as a dealer would.
+	 * @param needed # of cards the next move may draw
+	 */
+	private void ensureCards(int needed) {
+		if (deck.activeCount() < needed) shuffle();
+	}
+
+	/**
+	 * Shuffles the shoe, logging the shuffle
+	 */
+	private void shuffle() {
+		deck.suffleDeck();
+		seenCount = 0;
+		if (GameMetrics.ENABLED) GameMetrics.METRICS.shuffle();
+		if (log != null) log.shuffle(round, deck.activeCount());
+	}
+
+	/**
+	 * Seat id used in the hand log for a player
+	 * @param player Index into players
+	 * @return Seat index, or HandRecord.DEALER
+	 */
+	private int seatId(int player) {
+		return (player == dealer) ? HandRecord.DEALER : player;
+	}
+
+	/**
+	 * Compares every seat's hands against the dealer's, records the outcome
+	 * and settles each seat's bet
+	 * @param result Result to record outcomes in
+	 */
+	private void scoreRound(SimulationResult result) {
+		BJPlayer house = players[dealer];
+		if (log != null) log.result(round, HandRecord.DEALER, 0, HandRecord.FINAL, house.getHandScore(0));
+
+		for (int i = 0; i < dealer; i++) {
+			BJPlayer player = players[i];
+			int chips = 0;
+			for (int j = 0; j < player.numActiveHands(); j++) {
+				int outcome = HandRecord.outcomeOf(player, j, house);
+				if (GameMetrics.ENABLED) GameMetrics.METRICS.hand(outcome);
+				switch (outcome) {
+				case HandRecord.BUST: result.bust(); break;
+				case HandRecord.BLACKJACK: result.blackjack(); break;
+				case HandRecord.WIN: result.win(); break;
+				case HandRecord.PUSH: result.push(); break;
+				case HandRecord.SURRENDER: result.surrender(); break;
+				default: result.loss();
+				}
+				chips = chips + BJController.payout(player, j, outcome, rules);
+				if (log != null) log.result(round, i, j, outcome, player.getHandScore(j));
+			}
+			player.addWinnings(chips);
+			result.settle((double) chips / player.getBet());
+		}
+	}
+
+	/**
+	 * Entrypoint for headless simulation runs.
+	 * @param args [rounds] [seats] [decks] [logDir] [seed]
+	 */
+	public static void main(String[] args) {
+		long rounds = DEFAULT_ROUNDS;
+		int seats = DEFAULT_SEATS;
+		int decks = DEFAULT_DECKS;
+		if (args.length > 0) rounds = Long.parseLong(args[0]);
+		if (args.length > 1) seats = Integer.parseInt(args[1]);
+		if (args.length > 2) decks = Integer.parseInt(args[2]);
+
+		BJStrategy strategy = BJStrategy.getInstance();
+		System.out.println(strategy.loadReport());
+		SplittableRandom random = (args.length > 4) ? new SplittableRandom(Long.parseLong(args[4])) : null;
+		Simulator sim = new Simulator(seats, RuleSet.DEFAULT.withDecks(decks), strategy, random);
+		HandLog log = null;
+		if (args.length > 3) {
+			try {
+				log = new HandLog(Paths.get(args[3]), "sim");
+			} catch (IOException e) {
+				System.out.println("Could not open hand log in " + args[3]);
+				return;
+			}
+			sim.setLog(log);
+		}
+		System.out.println("Simulating " + rounds + " rounds, " + seats +
+				" seat(s), " + decks + " deck(s)...");
+		System.out.println(sim.run(rounds));
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				System.out.println("Could not close hand log");
+			}
+			System.out.println("Logged " + log.getRecords() + " records in " +
+					log.getSegments() + " segment(s)");
+		}
+	}
+}
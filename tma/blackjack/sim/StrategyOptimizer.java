@@ -0,0 +1,443 @@
+package tma.blackjack.sim;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import tma.blackjack.*;
+import tma.deck.*;
+import tma.deck.card.*;
+
+/**
+ * StrategyOptimizer searches for the best move in every cell of the three
+ * tables BJStrategy loads (single aces, pairs and sums) by simulation, and
+ * writes the result in the strategyGrid text format.
+ * <br><br>
+ * Each cell is a race between the moves that are legal for it. Every move
+ * that is still in the race plays a batch of hands starting from the cell's
+ * hand against the cell's dealer card, with the rest of the hand played by
+ * the current grid. After each batch, any move whose mean result is more than
+ * Z standard errors below the leader's is dropped, so clearly worse moves
+ * stop costing hands early and only close calls play out to the sample limit.
+ * If a close call is still open at the limit and the current move is still in
+ * the race, the current move is kept, so equal moves do not flip back and
+ * forth between passes.
+ * <br><br>
+ * Cells are independent within a pass, so every cell of a pass is raced in
+ * parallel against the grid from the pass before. Later decisions (e.g. what
+ * to do with hard 16 after hitting 12) come from that grid, so passes repeat
+ * until no cell changes, or the pass limit is reached.
+ * <br><br>
+ * Rules come from a RuleSet (the game's own by default). The dealer always
+ * peeks for blackjack, so hands where the dealer has blackjack are not
+ * counted. Only moves the rules allow for the cell's hand join its race
+ * (see BJController.isLegalMove), so e.g. surrender only where the rules
+ * offer it, and split only below the split limit. Count based deviations are
+ * not optimized, and are not carried over to the output.
+ * <br><br>
+ * Every cell draws from a SplittableRandom of its own, split off one master
+ * generator in cell order, so a run with the same seed, rules and input grid
+ * picks the same hands whatever the number of workers. From the command line
+ * the seed is -Dtma.blackjack.seed, or picked at random and printed.
+ * <br><br>
+ * Rules are given as RuleSet.parse tokens in one argument, e.g. "6D S17 LS"
+ * (a plain number is taken as the number of decks under the default rules),
+ * and written into the header of the output grid.
+ * <br><br>
+ * Usage: StrategyOptimizer [output] [rules] [maxHands] [workers] [passes] [input]
+ *
+ * @version 1.0
+ */
+public class StrategyOptimizer {
+	private static final int BATCH = 5000;
+	private static final double Z = 3.0;
+	private static final Move[] MOVES = { Move.Stay, Move.Hit, Move.Double, Move.Split, Move.Surrender };
+
+	private final RuleSet rules;
+	private final long maxHands;
+	private final int workers;
+	private Long seed;
+
+	/**
+	 * Creates an optimizer for the default rules
+	 * @param decks # of decks in the shoe
+	 * @param maxHands Most hands to play for each move of a cell
+	 * @param workers # of threads to race cells on
+	 */
+	public StrategyOptimizer(int decks, long maxHands, int workers) {
+		this(RuleSet.DEFAULT.withDecks(decks), maxHands, workers);
+	}
+
+	/**
+	 * Creates an optimizer
+	 * @param rules Rules of the game, including the shoe
+	 * @param maxHands Most hands to play for each move of a cell
+	 * @param workers # of threads to race cells on
+	 */
+	public StrategyOptimizer(RuleSet rules, long maxHands, int workers) {
+		this.rules = rules;
+		this.maxHands = Math.max(BATCH, maxHands);
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 * Makes every run from now on reproducible from a master seed
+	 * @param seed Master seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Optimizes a strategy, starting from a given grid
+	 * @param start Strategy to start from; also decides the first pass'
+	 * follow-up moves
+	 * @param passes Most passes to run
+	 * @return Optimized strategy
+	 */
+	public BJStrategy optimize(BJStrategy start, int passes) {
+		char[][][] tables = start.getTables();
+		SplittableRandom master = (seed == null) ? new SplittableRandom() : new SplittableRandom(seed);
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			for (int pass = 1; pass <= passes; pass++) {
+				long begin = System.nanoTime();
+				BJStrategy current = new BJStrategy(tables[0], tables[1], tables[2]);
+				List<Cell> cells = buildCells(tables, current, master);
+
+				long hands = 0;
+				int changed = 0;
+				for (Future<Cell> future : pool.invokeAll(cells)) {
+					Cell cell = future.get();
+					hands = hands + cell.hands;
+					char[] row = tables[cell.table - 1][cell.row];
+					if (row[cell.column] != cell.result) {
+						row[cell.column] = cell.result;
+						changed++;
+					}
+				}
+				System.out.println(String.format("Pass %d: %d cells, %d changed, %d hands, %.1f s",
+						pass, cells.size(), changed, hands, (System.nanoTime() - begin) / 1e9));
+				if (changed == 0) break;
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Optimizer run failed", e);
+		} finally {
+			pool.shutdown();
+		}
+		return new BJStrategy(tables[0], tables[1], tables[2]);
+	}
+
+	/**
+	 * Creates a race for every cell of the tables. A-10 is a blackjack, so
+	 * its row is left as it is.
+	 * @param tables Current tables
+	 * @param current Strategy built from the current tables
+	 * @param master Generator each cell's own is split off, in cell order
+	 * @return One Cell per table cell
+	 */
+	private List<Cell> buildCells(char[][][] tables, BJStrategy current, SplittableRandom master) {
+		List<Cell> cells = new ArrayList<Cell>();
+		for (int d = 0; d < 10; d++) {
+			for (int p = 0; p < tables[0].length - 1; p++) {
+				cells.add(new Cell(BJStrategy.ONE_ACE_TABLE, p, d, tables[0][p][d], current, master.split()));
+			}
+			for (int p = 0; p < tables[1].length; p++) {
+				cells.add(new Cell(BJStrategy.PAIR_TABLE, p, d, tables[1][p][d], current, master.split()));
+			}
+			for (int p = 0; p < tables[2].length; p++) {
+				cells.add(new Cell(BJStrategy.SUM_TABLE, p, d, tables[2][p][d], current, master.split()));
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * The race for one cell. Each cell plays on its own shoe and players, so
+	 * cells share nothing mutable but the (read-only) strategy.
+	 */
+	private class Cell implements Callable<Cell> {
+		final int table;
+		final int row;
+		final int column;
+		final char move;
+		final BJStrategy strategy;
+		final SplittableRandom random;
+		final Deck deck;
+		final BJPlayer player;
+		final BJPlayer house;
+		// starting hands for the cell: card values, with how often each
+		// occurs (ten valued cards are 4 times as common as the rest)
+		final int[][] starts;
+		final int[] weights;
+		int totalWeight;
+		long hands;
+		char result;
+
+		Cell(int table, int row, int column, char move, BJStrategy strategy, SplittableRandom random) {
+			this.table = table;
+			this.row = row;
+			this.column = column;
+			this.move = move;
+			this.strategy = strategy;
+			this.random = random;
+			deck = new Deck(rules.getDecks(), CardContext.Blackjack, random);
+			// every trial starts from a full shoe, or the cell's own cards
+			// would be drawn out of it trial after trial. As a continuous
+			// shuffler, the shoe takes each trial's cards straight back and
+			// draws at random, so no trial pays for a shuffle.
+			deck.setContinuousShuffle(true);
+			player = new BJPlayer("Seat", false);
+			house = new BJPlayer("Dealer", true);
+
+			List<int[]> options = new ArrayList<int[]>();
+			if (table == BJStrategy.ONE_ACE_TABLE) options.add(new int[] { 11, row + 2 });
+			else if (table == BJStrategy.PAIR_TABLE) options.add(new int[] { row + 2, row + 2 });
+			else options = hardHands(row + 5);
+			starts = options.toArray(new int[options.size()][]);
+			weights = new int[starts.length];
+			for (int i = 0; i < starts.length; i++) {
+				weights[i] = 1;
+				for (int value : starts[i]) weights[i] = weights[i] * ((value == 10) ? 4 : 1);
+				totalWeight = totalWeight + weights[i];
+			}
+		}
+
+		public Cell call() {
+			Move[] moves = firstMoves();
+			int n = moves.length;
+			boolean[] alive = new boolean[n];
+			double[] sum = new double[n];
+			double[] sumSq = new double[n];
+			long played = 0;
+			int left = n;
+			Arrays.fill(alive, true);
+
+			while (left > 1 && played < maxHands) {
+				for (int m = 0; m < n; m++) {
+					if (!alive[m]) continue;
+					for (int i = 0; i < BATCH; i++) {
+						double x = trial(moves[m]);
+						sum[m] = sum[m] + x;
+						sumSq[m] = sumSq[m] + x * x;
+					}
+					hands = hands + BATCH;
+				}
+				played = played + BATCH;
+
+				int best = leader(alive, sum);
+				double bestMean = sum[best] / played;
+				double bestVar = sumSq[best] / played - bestMean * bestMean;
+				for (int m = 0; m < n; m++) {
+					if (!alive[m] || m == best) continue;
+					double mean = sum[m] / played;
+					double var = sumSq[m] / played - mean * mean;
+					double se = Math.sqrt((var + bestVar) / played);
+					if (bestMean - mean > Z * se) {
+						alive[m] = false;
+						left--;
+					}
+				}
+			}
+
+			result = toChar(moves[leader(alive, sum)]);
+			for (int m = 0; m < n; m++) {
+				if (left > 1 && alive[m] && toChar(moves[m]) == move) result = move;
+			}
+			return this;
+		}
+
+		/**
+		 * Moves the rules allow the cell's hand to start with. Every starting
+		 * hand of a cell has the same number of cards, and only the pair
+		 * table's can split, so the first one stands for all of them.
+		 * @return Legal first moves
+		 */
+		private Move[] firstMoves() {
+			for (int value : starts[0]) deal(player, value);
+			List<Move> moves = new ArrayList<Move>();
+			for (Move first : MOVES) {
+				if (BJController.isLegalMove(player, 0, first, rules)) moves.add(first);
+			}
+			burn();
+			return moves.toArray(new Move[moves.size()]);
+		}
+
+		/**
+		 * Plays one hand from the cell, making a given first move and
+		 * following the strategy after that
+		 * @param first First move
+		 * @return Result in bets: +1 win, -1 loss, doubled for doubled hands,
+		 * -0.5 for a surrender
+		 */
+		private double trial(Move first) {
+			while (true) {
+				int[] start = pickStart();
+				for (int value : start) deal(player, value);
+				deal(house, column + 2);
+				BJController.dealCardToPlayer(deck.drawCard(), house, 0);
+				// dealer peeks: nothing the player does matters, so skip it
+				if (house.hasBlackjack(0)) {
+					burn();
+					continue;
+				}
+
+				int upCard = column + 2;
+				BJController.executeMove(player, 0, first, deck, rules);
+				boolean live = false;
+				for (int j = 0; j < player.numActiveHands(); j++) {
+					while (!BJController.playerIsDoneWithHand(player, j)) {
+						Move move = strategy.getRecommendedMove(player, j, upCard);
+						if (move == null || !BJController.isLegalMove(player, j, move, rules)) {
+							move = (player.getHandScore(j) < 17) ? Move.Hit : Move.Stay;
+						}
+						BJController.executeMove(player, j, move, deck, rules);
+					}
+					if (player.getHandScore(j) <= 21) live = true;
+				}
+				if (live) {
+					BJController.executeMove(house, 0, BJController.getRequiredMove(house, 0, rules), deck, rules);
+				}
+
+				double total = 0;
+				int dealerScore = house.getHandScore(0);
+				for (int j = 0; j < player.numActiveHands(); j++) {
+					int score = player.getHandScore(j);
+					int bet = (player.getLastMove(j) == Move.Double) ? 2 : 1;
+					if (player.getLastMove(j) == Move.Surrender) total = total - 0.5;
+					else if (score > 21) total = total - bet;
+					else if (dealerScore > 21 || score > dealerScore) total = total + bet;
+					else if (score < dealerScore) total = total - bet;
+				}
+				burn();
+				return total;
+			}
+		}
+
+		/**
+		 * Deals a card of a given value from the shoe. A full shoe has at
+		 * least 4 of every rank, and a cell needs at most 3 of one value.
+		 * @param to Player to deal to
+		 * @param value Blackjack value of the card
+		 */
+		private void deal(BJPlayer to, int value) {
+			Rank rank = (value == 11) ? Rank.Ace : Rank.convert(value);
+			BJController.dealCardToPlayer(deck.drawRank(rank), to, 0);
+		}
+
+		/**
+		 * Picks one of the cell's starting hands, weighted by how often it
+		 * is dealt
+		 * @return Card values of starting hand
+		 */
+		private int[] pickStart() {
+			if (starts.length == 1) return starts[0];
+			int pick = random.nextInt(totalWeight);
+			for (int i = 0; i < starts.length; i++) {
+				pick = pick - weights[i];
+				if (pick < 0) return starts[i];
+			}
+			return starts[starts.length - 1];
+		}
+
+		private void burn() {
+			player.burnCards(deck);
+			house.burnCards(deck);
+		}
+	}
+
+	/**
+	 * Starting hands for a hard total in the sum table: two different cards
+	 * without an Ace (so the hand is neither a pair nor soft), or three cards
+	 * if no such two card hand exists.
+	 * @param total Hard total
+	 * @return Card values of each starting hand
+	 */
+	private static List<int[]> hardHands(int total) {
+		List<int[]> hands = new ArrayList<int[]>();
+		for (int a = 2; a <= 10; a++) {
+			int b = total - a;
+			if (b > a && b <= 10) hands.add(new int[] { a, b });
+		}
+		if (hands.isEmpty()) {
+			for (int a = 2; a <= 10; a++) {
+				for (int b = a + 1; b <= 10; b++) {
+					int c = total - a - b;
+					if (c > b && c <= 10) hands.add(new int[] { a, b, c });
+				}
+			}
+		}
+		return hands;
+	}
+
+	/**
+	 * Move with the best total among those still in the race
+	 * @param alive Which moves are still in the race
+	 * @param sum Total result of each move
+	 * @return Index of leader
+	 */
+	private static int leader(boolean[] alive, double[] sum) {
+		int best = -1;
+		for (int m = 0; m < alive.length; m++) {
+			if (alive[m] && (best < 0 || sum[m] > sum[best])) best = m;
+		}
+		return best;
+	}
+
+	/**
+	 * Grid char for a move (see BJStrategy.buildStrategyTables)
+	 * @param move Move
+	 * @return Grid char
+	 */
+	private static char toChar(Move move) {
+		switch (move) {
+		case Stay: return 's';
+		case Double: return 'd';
+		case Split: return 'p';
+		case Surrender: return 'r';
+		default: return 'h';
+		}
+	}
+
+	/**
+	 * Entrypoint for grid optimization runs. Defaults to one worker per
+	 * available processor and the default rules.
+	 * @param args [output] [rules] [maxHands] [workers] [passes] [input]
+	 */
+	public static void main(String[] args) {
+		String output = "strategyGrid.optimized";
+		RuleSet rules = RuleSet.DEFAULT;
+		long maxHands = 2000000;
+		int workers = Runtime.getRuntime().availableProcessors();
+		int passes = 3;
+		String input = BJStrategy.TEXT_FILE;
+		if (args.length > 0) output = args[0];
+		if (args.length > 1) {
+			if (args[1].matches("\\d+")) rules = rules.withDecks(Integer.parseInt(args[1]));
+			else rules = RuleSet.parse(args[1]);
+		}
+		if (args.length > 2) maxHands = Long.parseLong(args[2]);
+		if (args.length > 3) workers = Integer.parseInt(args[3]);
+		if (args.length > 4) passes = Integer.parseInt(args[4]);
+		if (args.length > 5) input = args[5];
+
+		Long seed = Long.getLong("tma.blackjack.seed");
+		if (seed == null) seed = new SplittableRandom().nextLong();
+
+		System.out.println("Optimizing " + input + " for " + rules + ", up to " +
+				maxHands + " hands per move, on " + workers + " worker(s), seed " + seed + "...");
+		long start = System.nanoTime();
+		StrategyOptimizer optimizer = new StrategyOptimizer(rules, maxHands, workers);
+		optimizer.setSeed(seed);
+		BJStrategy best = optimizer.optimize(new BJStrategy(input), passes);
+		try (PrintStream out = new PrintStream(new FileOutputStream(output))) {
+			best.writeGrid(out, "generated by StrategyOptimizer: " + rules +
+					", up to " + maxHands + " hands per move");
+		} catch (IOException e) {
+			System.out.println("Could not write " + output);
+			return;
+		}
+		System.out.println(String.format("Wrote %s in %.1f s", output,
+				(System.nanoTime() - start) / 1e9));
+	}
+}
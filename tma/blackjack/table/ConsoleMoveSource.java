@@ -0,0 +1,33 @@
+package tma.blackjack.table;
+
+import tma.blackjack.*;
+
+/**
+ * ConsoleMoveSource reads a seat's moves from the console, prompting the same
+ * way the CLI always has (see BJController.parseInputFor). Only one table
+ * should use it, since every seat would share System.in.
+ *
+ * @version 1.0
+ */
+public class ConsoleMoveSource implements MoveSource {
+	private final RuleSet rules;
+
+	/**
+	 * Creates a console seat for a table with the default rules
+	 */
+	public ConsoleMoveSource() {
+		this(RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Creates a console seat
+	 * @param rules Rules of the table, which decide the moves offered
+	 */
+	public ConsoleMoveSource(RuleSet rules) {
+		this.rules = rules;
+	}
+
+	public Move nextMove(BJPlayer player, int hand, int dealerValue) {
+		return BJController.parseInputFor(player, hand, rules);
+	}
+}
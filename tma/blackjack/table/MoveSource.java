@@ -0,0 +1,27 @@
+package tma.blackjack.table;
+
+import tma.blackjack.*;
+
+/**
+ * A MoveSource decides the moves for one seat at a Table: the AI, a person at
+ * the console, or a remote player whose moves arrive asynchronously.
+ * <br><br>
+ * Sources are called from the table's own thread. A source that has to wait
+ * for a person should block (e.g. on a BlockingQueue) rather than spin; on a
+ * virtual thread, blocking parks the table without holding on to a carrier
+ * thread.
+ *
+ * @version 1.0
+ */
+public interface MoveSource {
+	/**
+	 * Decides the next move for a seat's hand. Illegal moves are rejected by
+	 * the table, which then asks again.
+	 * @param player Player sitting in the seat
+	 * @param hand Hand to decide a move for
+	 * @param dealerValue Blackjack value of the dealer's up card (2-11)
+	 * @return Move to make; Move.Quit leaves the table
+	 * @throws InterruptedException if the table is closed while waiting
+	 */
+	Move nextMove(BJPlayer player, int hand, int dealerValue) throws InterruptedException;
+}
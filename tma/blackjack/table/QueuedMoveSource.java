@@ -0,0 +1,118 @@
+package tma.blackjack.table;
+
+import java.util.concurrent.*;
+
+import tma.blackjack.*;
+import tma.deck.Card;
+
+/**
+ * QueuedMoveSource feeds a human seat asynchronously. When the table needs a
+ * move it posts a Prompt and parks until a move is submitted; whoever serves
+ * the player (a connection handler, a UI, a test) takes prompts with 
+ * nextPrompt() or pollPrompt() and answers with submit(). Moves can also be 
+ * submitted ahead of time, and are used in order.
+ * <br><br>
+ * The table's thread is the only one touching the game state; prompts carry
+ * a copy of what the player needs to see, so they are safe to read from the
+ * client's thread.
+ *
+ * @version 1.0
+ */
+public class QueuedMoveSource implements MoveSource {
+	private final BlockingQueue<Prompt> prompts = new LinkedBlockingQueue<Prompt>();
+	private final BlockingQueue<Move> moves = new LinkedBlockingQueue<Move>();
+
+	public Move nextMove(BJPlayer player, int hand, int dealerValue) throws InterruptedException {
+		prompts.offer(new Prompt(player, hand, dealerValue));
+		return moves.take();
+	}
+
+	/**
+	 * Submits a move for the seat
+	 * @param move Move to make
+	 */
+	public void submit(Move move) {
+		moves.offer(move);
+	}
+
+	/**
+	 * Waits for the table to ask for a move
+	 * @return What the table is asking about
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Prompt nextPrompt() throws InterruptedException {
+		return prompts.take();
+	}
+
+	/**
+	 * Waits a limited time for the table to ask for a move
+	 * @param timeout How long to wait
+	 * @param unit Unit of timeout
+	 * @return What the table is asking about, or null if it did not ask in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Prompt pollPrompt(long timeout, TimeUnit unit) throws InterruptedException {
+		return prompts.poll(timeout, unit);
+	}
+
+	/**
+	 * A request for a move: the hand to play and the dealer's up card, as
+	 * they were when the table asked.
+	 */
+	public static class Prompt {
+		private final String player;
+		private final int hand;
+		private final int[] cards;
+		private final int score;
+		private final boolean soft;
+		private final int dealerValue;
+
+		Prompt(BJPlayer player, int hand, int dealerValue) {
+			this.player = player.getName();
+			this.hand = hand;
+			cards = new int[player.getHand(hand).size()];
+			for (int i = 0; i < cards.length; i++) {
+				cards[i] = player.getHand(hand).get(i).getCode();
+			}
+			score = player.getHandScore(hand);
+			soft = player.hasSoftAce(hand);
+			this.dealerValue = dealerValue;
+		}
+
+		/** @return Name of player being asked */
+		public String getPlayer() {
+			return player;
+		}
+
+		/** @return Position of hand being asked about */
+		public int getHand() {
+			return hand;
+		}
+
+		/** @return Card codes in the hand (see Card.get) */
+		public int[] getCards() {
+			return cards.clone();
+		}
+
+		/** @return Hand score */
+		public int getScore() {
+			return score;
+		}
+
+		/** @return True if the hand has a soft ace */
+		public boolean isSoft() {
+			return soft;
+		}
+
+		/** @return Blackjack value of the dealer's up card (2-11) */
+		public int getDealerValue() {
+			return dealerValue;
+		}
+
+		public String toString() {
+			String str = player + "'s Hand " + (hand + 1) + ":";
+			for (int code : cards) str = str + " " + Card.get(code);
+			return str + " (" + (soft ? "Soft " : "") + score + ") vs " + dealerValue;
+		}
+	}
+}
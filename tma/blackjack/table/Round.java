@@ -0,0 +1,326 @@
+package tma.blackjack.table;
+
+import java.util.*;
+
+import tma.blackjack.*;
+import tma.blackjack.log.HandLog;
+import tma.blackjack.log.HandRecord;
+import tma.blackjack.metrics.GameMetrics;
+import tma.deck.*;
+
+/**
+ * A Round is one round of blackjack as an explicit state machine, so whoever
+ * drives it decides when each step happens and nothing in the round blocks or
+ * recurses. A round goes through these states:
+ * <ul>
+ * <li>DEAL - two cards to every seat and the dealer</li>
+ * <li>DECISION - waiting for the move of one seat's hand</li>
+ * <li>DEALER - the dealer plays out the hand, if a seat is still in the
+ * round</li>
+ * <li>SETTLE - every hand is done; scoring, paying wagers and burning the
+ * cards</li>
+ * <li>DONE - the round is over, and can be started again</li>
+ * </ul>
+ * The driver calls step() to make the next automatic step (DEAL, DEALER or
+ * SETTLE), and submit() to hand in a move while the round is in DECISION.
+ * Each call does one event and returns, so a single thread can keep any
+ * number of rounds going, advancing each one whenever its seat's move comes
+ * in. Table drives a round this way from its own thread.
+ * <br><br>
+ * A Round plays the players, deck and RuleSet it was created with, and is reused
+ * from round to round; playing a round allocates nothing. Seats that quit
+ * are flagged (see hasLeft) but left seated, for the driver to remove once
+ * the round is DONE.
+ * <br><br>
+ * With a HandLog set, a round writes the same records the Simulator does:
+ * shuffles, every card dealt or burned, moves with the cards they drew, and
+ * each hand's result, so a table's rounds can be replayed (see HandReplay).
+ * A seat that quits leaves its hands unfinished, and its round will not
+ * replay.
+ *
+ * @version 1.0
+ */
+public class Round {
+	/** States of a round */
+	public enum State { DEAL, DECISION, DEALER, SETTLE, DONE }
+
+	// cards a single move can draw, and most cards a dealer hand can take
+	private static final int MOVE_RESERVE = 2;
+	private static final int DEALER_RESERVE = 10;
+
+	private final Deck deck;
+	private final List<BJPlayer> players;
+	private final BJPlayer dealer;
+	private final RuleSet rules;
+	private HandLog log;
+	private long id;
+	private State state = State.DONE;
+	private boolean[] left = new boolean[0];
+	private int seats;
+	private int seat;
+	private int hand;
+	private int upCard;
+
+	/**
+	 * Creates a round played by the default rules, ready to start
+	 * @param deck Deck to deal from
+	 * @param players Seated players, in the order they play. Seats may only
+	 * be added or removed while the round is DONE.
+	 * @param dealer Dealer
+	 */
+	public Round(Deck deck, List<BJPlayer> players, BJPlayer dealer) {
+		this(deck, players, dealer, RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Creates a round, ready to start
+	 * @param deck Deck to deal from
+	 * @param players Seated players, in the order they play. Seats may only
+	 * be added or removed while the round is DONE.
+	 * @param dealer Dealer
+	 * @param rules Rules moves are checked and the dealer plays by
+	 */
+	public Round(Deck deck, List<BJPlayer> players, BJPlayer dealer, RuleSet rules) {
+		this.deck = deck;
+		this.players = players;
+		this.dealer = dealer;
+		this.rules = rules;
+	}
+
+	/**
+	 * Records every round played from now on to a hand log. Seats are logged
+	 * by their index in the players list, and round ids count up from 0.
+	 * @param log Log to write to, or null to stop logging
+	 */
+	public void setLog(HandLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Starts a new round, in state DEAL
+	 * @throws IllegalStateException if the last round is not DONE
+	 */
+	public void start() {
+		if (state != State.DONE) throw new IllegalStateException("Round is still in " + state);
+		seats = players.size();
+		if (left.length < seats) left = new boolean[seats];
+		Arrays.fill(left, false);
+		state = State.DEAL;
+	}
+
+	/**
+	 * Makes the next automatic step of the round
+	 * @return State the round is in afterwards
+	 * @throws IllegalStateException if the round is waiting on a move, or DONE
+	 */
+	public State step() {
+		switch (state) {
+		case DEAL:
+			deal();
+			break;
+		case DEALER:
+			if (isLive()) {
+				ensureCards(DEALER_RESERVE);
+				long start = GameMetrics.ENABLED ? GameMetrics.EXECUTIONS.start() : 0;
+				BJController.executeMove(dealer, 0, BJController.getRequiredMove(dealer, 0, rules), deck, rules);
+				if (GameMetrics.ENABLED) GameMetrics.EXECUTIONS.recordSince(start);
+				if (log != null) log.cards(id, HandRecord.DEALER, dealer, 0, 2);
+			}
+			state = State.SETTLE;
+			break;
+		case SETTLE:
+			settle();
+			break;
+		default:
+			throw new IllegalStateException("Round cannot step in " + state);
+		}
+		return state;
+	}
+
+	/**
+	 * Hands in the move for the seat and hand the round is waiting on. An
+	 * illegal move (or null) is ignored, and the round keeps waiting. Quit
+	 * ends the seat's part in the round.
+	 * @param move Move to make
+	 * @return State the round is in afterwards
+	 * @throws IllegalStateException if the round is not waiting on a move
+	 */
+	public State submit(Move move) {
+		if (state != State.DECISION) throw new IllegalStateException("Round is not waiting on a move");
+		BJPlayer player = players.get(seat);
+		if (move == null || !BJController.isLegalMove(player, hand, move, rules)) return state;
+		if (GameMetrics.ENABLED) GameMetrics.METRICS.move(move);
+		if (move == Move.Quit) {
+			left[seat] = true;
+		} else {
+			ensureCards(MOVE_RESERVE);
+			int size = player.getHand(hand).size();
+			int hands = player.numActiveHands();
+			long start = GameMetrics.ENABLED ? GameMetrics.EXECUTIONS.start() : 0;
+			BJController.executeMove(player, hand, move, deck, rules);
+			if (GameMetrics.ENABLED) GameMetrics.EXECUTIONS.recordSince(start);
+			if (log != null) log.move(id, seat, player, hand, move, size, hands);
+		}
+		nextDecision();
+		return state;
+	}
+
+	/**
+	 * Shuffles the discards back into the shoe, logging the shuffle. Drivers
+	 * call this between rounds when the shoe runs low.
+	 */
+	public void shuffle() {
+		deck.suffleDeck();
+		if (GameMetrics.ENABLED) GameMetrics.METRICS.shuffle();
+		if (log != null) log.shuffle(id, deck.activeCount());
+	}
+
+	/**
+	 * Rules the round is played by
+	 * @return Rules
+	 */
+	public RuleSet getRules() {
+		return rules;
+	}
+
+	/**
+	 * State the round is in
+	 * @return State
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Seat the round is waiting on, while in DECISION
+	 * @return Index of seat in the players list
+	 */
+	public int getSeat() {
+		return seat;
+	}
+
+	/**
+	 * Hand the round is waiting on, while in DECISION
+	 * @return Hand of seat
+	 */
+	public int getHand() {
+		return hand;
+	}
+
+	/**
+	 * Value of the card the dealer is showing, once dealt
+	 * @return Blackjack value of up card (2-11)
+	 */
+	public int getUpCard() {
+		return upCard;
+	}
+
+	/**
+	 * Did a seat quit during the round?
+	 * @param seat Index of seat in the players list
+	 * @return True if the seat quit
+	 */
+	public boolean hasLeft(int seat) {
+		return seat < seats && left[seat];
+	}
+
+	/**
+	 * Deals two cards to each seat and the dealer, burning one after each
+	 * pass, and moves on to the first decision (none if the dealer has
+	 * blackjack)
+	 */
+	private void deal() {
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < seats; j++) {
+				Card card = deck.drawCard();
+				BJController.dealCardToPlayer(card, players.get(j), 0);
+				if (log != null) log.deal(id, j, 0, card.getCode());
+			}
+			Card card = deck.drawCard();
+			BJController.dealCardToPlayer(card, dealer, 0);
+			if (log != null) log.deal(id, HandRecord.DEALER, 0, card.getCode());
+			Card burn = deck.drawCard();
+			deck.burnCard(burn);
+			if (log != null) log.burn(id, burn.getCode());
+		}
+		upCard = BJController.cardValue(dealer.getHand(0).get(0));
+		seat = 0;
+		hand = 0;
+		if (dealer.hasBlackjack(0)) state = State.DEALER;
+		else nextDecision();
+	}
+
+	/**
+	 * Finds the next hand, from the current seat and hand on, that still
+	 * needs a move. Hands added by splits are played in turn, after the hands
+	 * before them. If every hand is done, the dealer plays.
+	 */
+	private void nextDecision() {
+		for (; seat < seats; seat++, hand = 0) {
+			if (left[seat]) continue;
+			BJPlayer player = players.get(seat);
+			for (; hand < player.numActiveHands(); hand++) {
+				if (!BJController.playerIsDoneWithHand(player, hand)) {
+					state = State.DECISION;
+					return;
+				}
+			}
+		}
+		state = State.DEALER;
+	}
+
+	/**
+	 * Is a seat still in the round, so the dealer has to play? Not if the
+	 * dealer has blackjack, or every hand has busted.
+	 * @return True if the dealer plays out the hand
+	 */
+	private boolean isLive() {
+		if (dealer.hasBlackjack(0)) return false;
+		for (int i = 0; i < seats; i++) {
+			if (left[i]) continue;
+			BJPlayer player = players.get(i);
+			for (int j = 0; j < player.numActiveHands(); j++) {
+				if (player.getHandScore(j) <= 21) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts every hand's outcome, settles each seat's wagers into its
+	 * winnings, and burns all hands. Seats that quit forfeit what they had
+	 * riding.
+	 */
+	private void settle() {
+		if (log != null) log.result(id, HandRecord.DEALER, 0, HandRecord.FINAL, dealer.getHandScore(0));
+		for (int i = 0; i < seats; i++) {
+			BJPlayer player = players.get(i);
+			if (left[i]) {
+				for (int j = 0; j < player.numActiveHands(); j++) player.addWinnings(-player.getWager(j));
+			} else {
+				BJController.settle(player, dealer, rules);
+			}
+			if (GameMetrics.ENABLED || log != null) {
+				for (int j = 0; j < player.numActiveHands(); j++) {
+					int outcome = HandRecord.outcomeOf(player, j, dealer);
+					if (GameMetrics.ENABLED) GameMetrics.METRICS.hand(outcome);
+					if (log != null) log.result(id, i, j, outcome, player.getHandScore(j));
+				}
+			}
+			player.burnCards(deck);
+		}
+		dealer.burnCards(deck);
+		if (GameMetrics.ENABLED) GameMetrics.METRICS.round();
+		id++;
+		state = State.DONE;
+	}
+
+	/**
+	 * Makes sure the shoe has enough cards left for the next draw, shuffling
+	 * the discards back in mid round if not
+	 * @param needed # of cards the next draw may take
+	 */
+	private void ensureCards(int needed) {
+		if (deck.activeCount() < needed) shuffle();
+	}
+}
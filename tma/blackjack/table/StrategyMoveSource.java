@@ -0,0 +1,55 @@
+package tma.blackjack.table;
+
+import tma.blackjack.*;
+import tma.blackjack.metrics.GameMetrics;
+
+/**
+ * StrategyMoveSource plays a seat with BJStrategy, the same way the AI seats
+ * in Simulator do by default: flat basic strategy, without count based
+ * deviations, and if the strategy has no move, or recommends one that is not
+ * legal under the seat's rules (e.g. double on a 3 card hand), hit below 17
+ * and stay otherwise.
+ * Decisions are timed into GameMetrics.DECISIONS.
+ *
+ * @version 1.0
+ */
+public class StrategyMoveSource implements MoveSource {
+	private final BJStrategy strategy;
+	private final RuleSet rules;
+
+	/**
+	 * Creates an AI seat using the shared strategy
+	 */
+	public StrategyMoveSource() {
+		this(BJStrategy.getInstance());
+	}
+
+	/**
+	 * Creates an AI seat using a given strategy, for a table with the default
+	 * rules
+	 * @param strategy Strategy to play by
+	 */
+	public StrategyMoveSource(BJStrategy strategy) {
+		this(strategy, RuleSet.DEFAULT);
+	}
+
+	/**
+	 * Creates an AI seat using a given strategy
+	 * @param strategy Strategy to play by
+	 * @param rules Rules of the table the seat plays at
+	 */
+	public StrategyMoveSource(BJStrategy strategy, RuleSet rules) {
+		this.strategy = strategy;
+		this.rules = rules;
+	}
+
+	public Move nextMove(BJPlayer player, int hand, int dealerValue) {
+		long start = GameMetrics.ENABLED ? GameMetrics.DECISIONS.start() : 0;
+		Move move = strategy.getRecommendedMove(player, hand, dealerValue);
+		if (GameMetrics.ENABLED) GameMetrics.DECISIONS.recordSince(start);
+		if (move == null || !BJController.isLegalMove(player, hand, move, rules)) {
+			move = (player.getHandScore(hand) < 17) ? Move.Hit : Move.Stay;
+		}
+		return move;
+	}
+}
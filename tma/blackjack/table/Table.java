@@ -0,0 +1,230 @@
+package tma.blackjack.table;
+
+import java.util.*;
+
+import tma.blackjack.*;
+import tma.blackjack.log.HandLog;
+import tma.blackjack.output.OutputSink;
+import tma.deck.*;
+import tma.deck.card.*;
+
+/**
+ * A Table runs the game loop that used to live in Blackjack.main: deal, play
+ * each seat, play the dealer, score, burn, and reshuffle when the shoe runs
+ * low. Every table has its own Deck, seats and dealer, and decides each
+ * seat's moves through that seat's MoveSource, so nothing is shared between
+ * tables but the read-only strategy. Each round is a Round state machine,
+ * which the table steps through from its own thread.
+ * <br><br>
+ * A table is a Runnable that plays until it is closed or every seat has left,
+ * and is meant to run on a thread of its own; TableHost runs each table on a
+ * virtual thread, so thousands of tables waiting on their players cost very
+ * little. Seats are added before the table starts.
+ * <br><br>
+ * With echo on, the table prints the hands and scores the way the CLI always
+ * has, to BJController's OutputSink. Echo is meant for the single console
+ * table; hosted tables run quiet.
+ * Every table counts its rounds, moves and outcomes in GameMetrics.
+ * <br><br>
+ * A table plays by its RuleSet: the shoe it deals from, when it reshuffles,
+ * and the moves its Round accepts. Seats should decide by the same rules
+ * (see StrategyMoveSource); a move the rules do not allow is asked for again.
+ * <br><br>
+ * A table can keep a hand history (see setLog), written by its Round.
+ *
+ * @version 1.0
+ */
+public class Table implements Runnable {
+	private final String name;
+	private final Deck deck;
+	private final RuleSet rules;
+	private final boolean echo;
+	private final List<BJPlayer> players = new ArrayList<BJPlayer>();
+	private final List<MoveSource> sources = new ArrayList<MoveSource>();
+	private final BJPlayer dealer;
+	private final Round round;
+	private volatile boolean closed;
+	private volatile Thread runner;
+	private volatile long rounds;
+	private long roundLimit = Long.MAX_VALUE;
+
+	/**
+	 * Creates an empty table, playing by the default rules
+	 * @param name Name of table
+	 * @param decks # of decks in the shoe
+	 * @param echo True to print hands and scores to the console
+	 */
+	public Table(String name, int decks, boolean echo) {
+		this(name, RuleSet.DEFAULT.withDecks(decks), echo);
+	}
+
+	/**
+	 * Creates an empty table
+	 * @param name Name of table
+	 * @param rules Rules of the table
+	 * @param echo True to print hands and scores to the console
+	 */
+	public Table(String name, RuleSet rules, boolean echo) {
+		this.name = name;
+		this.rules = rules;
+		this.echo = echo;
+		deck = new Deck(rules.getDecks(), CardContext.Blackjack);
+		deck.setContinuousShuffle(rules.usesContinuousShuffle());
+		dealer = new BJPlayer("Dealer", true);
+		round = new Round(deck, players, dealer, rules);
+	}
+
+	/**
+	 * Seats a player at the table. Seats are played in the order they are
+	 * added.
+	 * @param player Name of player
+	 * @param source Where the seat's moves come from
+	 * @return The seated player
+	 */
+	public BJPlayer addSeat(String player, MoveSource source) {
+		if (runner != null) throw new IllegalStateException("Table is already running");
+		BJPlayer seat = new BJPlayer(player, false);
+		players.add(seat);
+		sources.add(source);
+		return seat;
+	}
+
+	/**
+	 * Records every round the table plays to a hand log, which it writes
+	 * from its own thread. Seats are logged by their position at the table
+	 * in each round.
+	 * @param log Log to write to, or null for none
+	 */
+	public void setLog(HandLog log) {
+		if (runner != null) throw new IllegalStateException("Table is already running");
+		round.setLog(log);
+	}
+
+	/**
+	 * Limits the number of rounds the table plays before it stops on its own
+	 * @param limit Most rounds to play
+	 */
+	public void setRoundLimit(long limit) {
+		roundLimit = limit;
+	}
+
+	/**
+	 * Plays rounds until the table is closed, every seat has left, or the
+	 * round limit is reached
+	 */
+	public void run() {
+		runner = Thread.currentThread();
+		try {
+			while (!closed && !players.isEmpty() && rounds < roundLimit) {
+				playRound();
+				rounds++;
+			}
+		} catch (InterruptedException e) {
+			// closed while waiting on a seat
+		} finally {
+			closed = true;
+			runner = null;
+		}
+	}
+
+	/**
+	 * Stops the table. A round in progress is abandoned if the table is
+	 * waiting on a seat, and finished otherwise.
+	 */
+	public void close() {
+		closed = true;
+		Thread thread = runner;
+		if (thread != null) thread.interrupt();
+	}
+
+	/**
+	 * Has the table stopped (or been told to stop)?
+	 * @return True if the table is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Number of rounds played to completion
+	 * @return # of rounds
+	 */
+	public long getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Rules the table plays by
+	 * @return Rules
+	 */
+	public RuleSet getRules() {
+		return rules;
+	}
+
+	/**
+	 * Name of table
+	 * @return Name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Plays one round, driving the table's Round and asking each seat's
+	 * source for its moves. Seats that quit during the round leave once it is
+	 * over.
+	 * @throws InterruptedException if the table is closed while waiting on a seat
+	 */
+	private void playRound() throws InterruptedException {
+		round.start();
+		while (round.getState() != Round.State.DONE) {
+			if (round.getState() != Round.State.DECISION) {
+				if (echo && round.getState() == Round.State.SETTLE) printFinalScores();
+				round.step();
+				continue;
+			}
+			int seat = round.getSeat();
+			int hand = round.getHand();
+			BJPlayer player = players.get(seat);
+			if (echo) {
+				BJController.displayHandForPlayer(player, hand);
+				BJController.displayHandForPlayer(dealer, 0);
+			}
+			round.submit(sources.get(seat).nextMove(player, hand, round.getUpCard()));
+			if (echo && player.didBust(hand)) BJController.printBustForHand(player, hand);
+		}
+
+		// let seats that quit go
+		for (int i = players.size() - 1; i >= 0; i--) {
+			if (round.hasLeft(i)) {
+				players.remove(i);
+				sources.remove(i);
+			}
+		}
+
+		if (deck.activeCount() < rules.reshuffleAt((players.size() + 1) * 5)) {
+			round.shuffle();
+			if (echo) BJController.getOutput().println("Shuffling deck...");
+		}
+		OutputSink out = BJController.getOutput();
+		if (echo && out.isEnabled()) {
+			for (BJPlayer player : players) {
+				out.println(player.getName() + "'s winnings: " + player.getWinnings());
+			}
+			out.println("-----------");
+		}
+	}
+
+	/**
+	 * Prints every hand's final score, for echo
+	 */
+	private void printFinalScores() {
+		BJController.getOutput().println();
+		for (BJPlayer player : players) {
+			for (int j = 0; j < player.numActiveHands(); j++) {
+				BJController.printFinalScoreForHand(player, j);
+			}
+		}
+		BJController.printFinalScoreForHand(dealer, 0);
+	}
+}
@@ -0,0 +1,105 @@
+package tma.blackjack.table;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import tma.blackjack.*;
+import tma.blackjack.metrics.GameMetrics;
+
+/**
+ * TableHost runs tables, each on a virtual thread of its own. A table waiting
+ * on a human seat parks its virtual thread instead of holding a platform
+ * thread, so a host can keep thousands of practice tables open at once.
+ * <br><br>
+ * The main method is a load demo: it opens a number of tables, each with an
+ * AI seat and a "human" seat fed through a QueuedMoveSource by a client on
+ * yet another virtual thread, and reports how many rounds were played along
+ * with the GameMetrics gathered while playing them.
+ * <br><br>
+ * Usage: TableHost [tables] [rounds]
+ *
+ * @version 1.0
+ */
+public class TableHost implements AutoCloseable {
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final Set<Table> tables = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Starts a table on a new virtual thread
+	 * @param table Table to start, with its seats already added
+	 * @return Future that completes when the table stops
+	 */
+	public Future<?> open(Table table) {
+		tables.add(table);
+		return executor.submit(() -> {
+			try {
+				table.run();
+			} finally {
+				tables.remove(table);
+			}
+		});
+	}
+
+	/**
+	 * Number of tables still running
+	 * @return # of open tables
+	 */
+	public int openTables() {
+		return tables.size();
+	}
+
+	/**
+	 * Closes every table and waits for their threads to finish
+	 */
+	public void close() {
+		for (Table table : tables) table.close();
+		executor.close();
+	}
+
+	/**
+	 * Entrypoint for the hosting demo
+	 * @param args [tables] [rounds]
+	 */
+	public static void main(String[] args) throws Exception {
+		int count = 10000;
+		long rounds = 100;
+		if (args.length > 0) count = Integer.parseInt(args[0]);
+		if (args.length > 1) rounds = Long.parseLong(args[1]);
+
+		System.out.println(BJStrategy.getInstance().loadReport());
+		System.out.println("Hosting " + count + " tables, " + rounds + " rounds each...");
+		long start = System.nanoTime();
+		List<Table> opened = new ArrayList<Table>();
+		try (TableHost host = new TableHost()) {
+			List<Future<?>> done = new ArrayList<Future<?>>();
+			for (int i = 0; i < count; i++) {
+				Table table = new Table("Table " + (i + 1), 6, false);
+				table.addSeat("AI", new StrategyMoveSource());
+				QueuedMoveSource human = new QueuedMoveSource();
+				table.addSeat("Player", human);
+				table.setRoundLimit(rounds);
+				opened.add(table);
+				done.add(host.open(table));
+				// the "client" answering the human seat: hit below 17
+				host.executor.submit(() -> {
+					try {
+						while (!table.isClosed()) {
+							QueuedMoveSource.Prompt prompt = human.pollPrompt(100, TimeUnit.MILLISECONDS);
+							if (prompt != null) human.submit(prompt.getScore() < 17 ? Move.Hit : Move.Stay);
+						}
+					} catch (InterruptedException e) {
+						// host closed
+					}
+					return null;
+				});
+			}
+			for (Future<?> future : done) future.get();
+		}
+		long played = 0;
+		for (Table table : opened) played = played + table.getRounds();
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Played %d rounds in %.2f s (%.0f rounds/sec)",
+				played, secs, played / secs));
+		if (GameMetrics.ENABLED) System.out.println(GameMetrics.METRICS);
+	}
+}
@@ -6,6 +6,11 @@ import tma.deck.card.*;
 /**
  * Card class represents a playing card. Stores info about the rank, suit, and
  * what game/context that card is being used in
+ * <br><br>
+ * Every card also has a compact code from 0 to 51 (suit * 13 + rank - 1), which
+ * is what Deck and the game engines pass around. There is only ever one Card
+ * object per code and context, returned by Card.get(), so Card objects are
+ * shared and mainly used for display.
  * 
  * @author Tyler Ambroziak
  * @version 1.0
@@ -13,12 +18,20 @@ import tma.deck.card.*;
  */
 @SuppressWarnings("unchecked")
 public class Card implements Comparable {
-	private Suit suit;
-	private Rank rank;
-	private CardContext context;
+	/** Number of distinct cards (and codes) in a pack */
+	public static final int PACK_SIZE = 52;
+	/** Code used for cards that have no place in a pack, i.e. Jokers */
+	public static final int NO_CODE = -1;
+	private static final Card[][] CARDS = buildCards();
+	
+	private final Suit suit;
+	private final Rank rank;
+	private final CardContext context;
+	private final int code;
 	
 	/**
-	 * Constructs a card, setting the rank, suit, and context (game)
+	 * Constructs a card, setting the rank, suit, and context (game). Prefer
+	 * Card.get(), which returns the shared instance for a card.
 	 * @param suit
 	 * @param rank
 	 * @param context
@@ -27,6 +40,45 @@ public class Card implements Comparable {
 		this.suit = suit;
 		this.rank = rank;
 		this.context = context;
+		if (rank == Rank.Joker) code = NO_CODE;
+		else code = suit.ordinal() * 13 + rank.ordinal() - 1;
+	}
+	
+	/**
+	 * Returns the shared Card for a code in a given context
+	 * @param code Card code (0-51)
+	 * @param context CardContext of the card
+	 * @return Card for code
+	 */
+	public static Card get(int code, CardContext context) {
+		return CARDS[context.ordinal()][code];
+	}
+	
+	/**
+	 * Returns the shared blackjack Card for a code
+	 * @param code Card code (0-51)
+	 * @return Card for code
+	 */
+	public static Card get(int code) {
+		return get(code, CardContext.Blackjack);
+	}
+	
+	/**
+	 * Returns the rank ordinal (1 = Ace ... 13 = King) of a card code, without
+	 * looking up the Card
+	 * @param code Card code (0-51)
+	 * @return Rank ordinal
+	 */
+	public static int rankOf(int code) {
+		return code % 13 + 1;
+	}
+	
+	/**
+	 * Gets card's code
+	 * @return Card code (0-51), or NO_CODE for Jokers
+	 */
+	public int getCode() {
+		return this.code;
 	}
 	
 	/**
@@ -69,7 +121,7 @@ public class Card implements Comparable {
 	 * @return True if cards are equal, false otherwise
 	 */
 	public boolean equals(Card card) {
-		return this.suit == card.getSuit() && this.rank == card.getRank();
+		return this.suit == card.suit && this.rank == card.rank;
 	}
 	
 	/**
@@ -88,15 +140,30 @@ public class Card implements Comparable {
 	 * @return Difference between two card values
 	 */
 	public int compareTo(Object o) {
-		if (o.getClass() != this.getClass()) return -1;
+		if (!(o instanceof Card)) return -1;
 		
 		Card card = (Card) o;
 		
 		if (context == CardContext.Blackjack) {
-			return BJController.cardValue(this) - BJController.cardValue(card);
+			return BJController.cardValue(code) - BJController.cardValue(card.code);
 		}
 		
 		return -1;
 		
 	}
+	
+	/**
+	 * Builds the shared Card instances, one per code for every context
+	 * @return Cards indexed by [context][code]
+	 */
+	private static Card[][] buildCards() {
+		CardContext[] contexts = CardContext.values();
+		Card[][] cards = new Card[contexts.length][PACK_SIZE];
+		for (int c = 0; c < contexts.length; c++) {
+			for (int i = 0; i < PACK_SIZE; i++) {
+				cards[c][i] = new Card(Suit.convert(i / 13), Rank.convert(rankOf(i)), contexts[c]);
+			}
+		}
+		return cards;
+	}
 }
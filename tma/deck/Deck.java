@@ -1,6 +1,8 @@
 package tma.deck;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 import tma.deck.card.*;
 
 /**
@@ -8,6 +10,36 @@ import tma.deck.card.*;
  * (assuming 52 cards in a deck). Tracks active cards, burned cards, and the 
  * CardContext of the deck. Also contains basic logic for shuffling, drawing,
  * and burning cards.
+ * <br><br>
+ * All cards live in a single array of card codes (see Card.getCode()). Cards
+ * from the draw cursor to the end of the array are the active pile, and the
+ * burn pile is kept at the front of the array, in slots already vacated by 
+ * drawn cards. Drawing is an index bump and shuffling is an in-place 
+ * Fisher-Yates pass, so neither allocates. Cards handed out by drawCard() are
+ * the shared instances from Card.get(); drawCode() skips the Card entirely.
+ * <br><br>
+ * The Deck also keeps card counting state as cards are drawn: how many of 
+ * each rank have not been seen yet, and the Hi-Lo running count. Both reset
+ * when the deck is shuffled, and every query is O(1). The unseen ranks are
+ * also the composition of the active pile, which can be copied out as a
+ * count vector (getComposition), or taken as a DeckSnapshot in O(1): the
+ * snapshot shares the deck's counts, and whichever of the two changes them
+ * first copies them (copy-on-write), so what-if analysis never pays for a
+ * copy it does not mutate.
+ * <br><br>
+ * By default shuffles draw from ThreadLocalRandom, which is fast, uncontended
+ * and unseeded. A deck can be given a SplittableRandom instead, so that its
+ * shuffles come out the same every time the same seed is used. Parallel runs
+ * split one master SplittableRandom into a generator per worker, giving each
+ * worker an independent stream, and reproduce exactly from the master seed.
+ * A deck's generator is only used by the thread playing the deck.
+ * <br><br>
+ * A deck can also act as a continuous shuffling machine (CSM). Burned cards
+ * then go straight back into the active pile instead of the burn pile, and
+ * every draw takes a uniformly random card from the active pile, by swapping
+ * it to the cursor first. Both are O(1), and the shoe never needs a shuffle
+ * pass. Since cards come back, the unseen rank counts always match the
+ * active pile, and the running count covers only cards out of the shoe.
  * 
  * @author Tyler Ambroziak
  * @version 1.0
@@ -15,18 +47,29 @@ import tma.deck.card.*;
  */
 public class Deck {
 	private final int DECK_SIZE = 52;
-	private ArrayList<Card> burnPile;
-	private Queue<Card> activePile;
+	private byte[] cards;
+	private int cursor;
+	private int burnCount;
 	private int packCount;
 	private CardContext context;
+	// unseen cards of each rank (index = rank - 1) and Hi-Lo running count
+	private int[] rankCounts;
+	private int runningCount;
+	// true while a snapshot may still be sharing rankCounts
+	private boolean countsShared;
+	// shuffle source; null for ThreadLocalRandom
+	private SplittableRandom random;
+	// true when acting as a continuous shuffling machine
+	private boolean continuous;
+	
+	// Hi-Lo tag for every card code: 2-6 are +1, 7-9 are 0, 10-K and A are -1
+	private static final byte[] HI_LO = buildHiLoTags();
 	
 	/**
 	 * Default construction. 1 deck, 52 cards, blackjack context
 	 */
 	public Deck() {
 		packCount = 1;
-		burnPile = new ArrayList<Card>();
-		activePile = new LinkedList<Card>();
 		context = CardContext.Blackjack;
 		initDeck(packCount, context);
 		suffleDeck();
@@ -40,8 +83,6 @@ public class Deck {
 	public Deck(int cnt) {
 		if (cnt < 1) packCount = 1;
 		else packCount = cnt;
-		burnPile = new ArrayList<Card>();
-		activePile = new LinkedList<Card>();
 		context = CardContext.Blackjack;
 		initDeck(packCount, context);
 		suffleDeck();
@@ -54,21 +95,65 @@ public class Deck {
 	 * @param cont CardContext for deck/cards
 	 */
 	public Deck(int cnt, CardContext cont) {
+		this(cnt, cont, null);
+	}
+
+	/**
+	 * Creates a deck whose shuffles, starting with the first, come from a
+	 * given generator
+	 * @param cnt # of decks for the Deck
+	 * @param cont CardContext for deck/cards
+	 * @param random Generator to shuffle with, or null for ThreadLocalRandom
+	 */
+	public Deck(int cnt, CardContext cont, SplittableRandom random) {
 		if (cnt < 1) packCount = 1;
 		else packCount = cnt;
-		burnPile = new ArrayList<Card>();
-		activePile = new LinkedList<Card>();
 		context = cont;
+		this.random = random;
 		initDeck(packCount, context);
 		suffleDeck();
 	}
+
+	/**
+	 * Sets the generator shuffles come from, from the next shuffle on
+	 * @param random Generator to shuffle with, or null for ThreadLocalRandom
+	 */
+	public void setRandom(SplittableRandom random) {
+		this.random = random;
+	}
+
+	/**
+	 * Generator shuffles come from
+	 * @return Generator, or null if shuffles use ThreadLocalRandom
+	 */
+	public SplittableRandom getRandom() {
+		return random;
+	}
+	
+	/**
+	 * Turns continuous shuffling on or off. Turning it on shuffles the burn
+	 * pile back in first, so the burn pile stays empty while it is on.
+	 * @param continuous True to act as a continuous shuffling machine
+	 */
+	public void setContinuousShuffle(boolean continuous) {
+		if (continuous && !this.continuous) suffleDeck();
+		this.continuous = continuous;
+	}
+
+	/**
+	 * Is the deck acting as a continuous shuffling machine?
+	 * @return True if burned cards go back into the active pile
+	 */
+	public boolean isContinuousShuffle() {
+		return continuous;
+	}
 	
 	/**
 	 * How many cards are available to play before shuffling
 	 * @return # of cards in active deck
 	 */
 	public int activeCount() {
-		return activePile.size();
+		return cards.length - cursor;
 	}
 	
 	/**
@@ -76,24 +161,105 @@ public class Deck {
 	 * @return # of cards in burn pile
 	 */
 	public int burnCount() {
-		return burnPile.size();
+		return burnCount;
 	}
 	
 	/**
 	 * Draws a card from the deck
-	 * @return Card from active deck
+	 * @return Card from active deck, or null if the active deck is empty
 	 */
 	public Card drawCard() {
-		return activePile.poll();
+		if (cursor == cards.length) return null;
+		if (continuous) pickRandom();
+		return Card.get(countCard(cards[cursor++]), context);
+	}
+	
+	/**
+	 * Draws a card of a given rank from anywhere in the active pile, by 
+	 * swapping it to the top first. Used to set up particular hands, e.g. for
+	 * simulations. Which of the matching cards is drawn is random (taking the
+	 * first one would leave the cards above it short of that rank), so the
+	 * rest of the pile stays shuffled. O(n) in the size of the active pile.
+	 * @param rank Rank of card to draw
+	 * @return Card of that rank, or null if none are left in the active pile
+	 */
+	public Card drawRank(Rank rank) {
+		int want = rank.ordinal() - 1;
+		if (want < 0 || rankCounts[want] == 0) return null;
+		int skip = generator().nextInt(rankCounts[want]);
+		for (int i = cursor; i < cards.length; i++) {
+			if (cards[i] % 13 == want && skip-- == 0) {
+				byte temp = cards[i];
+				cards[i] = cards[cursor];
+				cards[cursor] = temp;
+				return Card.get(countCard(cards[cursor++]), context);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Replaces every card in the deck with the given cards, which are then
+	 * drawn in order. Used to replay recorded rounds, where the cards dealt
+	 * are known up front. The burn pile is emptied and the count starts over
+	 * from the stacked cards. Stacking turns continuous shuffling off, since
+	 * it would draw the stacked cards out of order.
+	 * @param codes Codes of cards to draw, first drawn first
+	 * @param count # of codes to use
+	 */
+	public void stack(int[] codes, int count) {
+		continuous = false;
+		if (count > cards.length) cards = new byte[count];
+		cursor = cards.length - count;
+		burnCount = 0;
+		for (int i = 0; i < count; i++) {
+			cards[cursor + i] = (byte) codes[i];
+		}
+		resetCount();
 	}
 	
 	/**
-	 * Discard a card, add it to the burn pile
+	 * Draws a card from the deck, returning only its code
+	 * @return Code of card from active deck, or Card.NO_CODE if the active 
+	 * deck is empty
+	 */
+	public int drawCode() {
+		if (cursor == cards.length) return Card.NO_CODE;
+		if (continuous) pickRandom();
+		return countCard(cards[cursor++]);
+	}
+	
+	/**
+	 * Discard a card, add it to the burn pile. Only cards drawn from this deck
+	 * can be burned, so the burn pile can never hold more cards than have been
+	 * drawn. Burned cards were counted when they were drawn, so burning them
+	 * leaves the count alone. A continuous shuffler puts the card back in the
+	 * active pile instead, and takes it back out of the count.
 	 * @param card Card to burn
 	 * @return if card was successfully added to burn pile
 	 */
 	public boolean burnCard(Card card) {
-		return burnPile.add(card);
+		if (card == null) return false;
+		return burnCode(card.getCode());
+	}
+	
+	/**
+	 * Discard a card by code, add it to the burn pile
+	 * @param code Code of card to burn
+	 * @return if card was successfully added to burn pile
+	 */
+	public boolean burnCode(int code) {
+		if (code < 0 || code >= Card.PACK_SIZE || burnCount == cursor) return false;
+		if (continuous) {
+			// draws are random, so the card can go right in front of the cursor
+			cards[--cursor] = (byte) code;
+			if (countsShared) ownCounts();
+			rankCounts[code % 13]++;
+			runningCount = runningCount - HI_LO[code];
+			return true;
+		}
+		cards[burnCount++] = (byte) code;
+		return true;
 	}
 
 	/**
@@ -102,39 +268,80 @@ public class Deck {
 	 * @return Empty hand
 	 */
 	public ArrayList<Card> burnHand(ArrayList<Card> hand) {
-		for (Card card : hand) burnCard(card);
+		for (int i = 0; i < hand.size(); i++) burnCard(hand.get(i));
 		hand.clear();
 		return hand;
 	}
 	
 	/**
 	 * Shuffles entire deck (active & burn piles)
-	 * Merges all cards into burn pile, shuffles that, and then reassigns it
-	 * to the active pile
+	 * Moves the burn pile up against the active pile, and shuffles the two
+	 * together in place
 	 */
 	public void suffleDeck() {
-		while (!activePile.isEmpty()) {
-			burnPile.add(activePile.remove());
-		}
-		
-		activePile = shuffle(burnPile);
-		burnPile.clear();
-		
+		System.arraycopy(cards, 0, cards, cursor - burnCount, burnCount);
+		cursor = cursor - burnCount;
+		burnCount = 0;
+		shuffle(cursor, cards.length);
+		resetCount();
 	}
 	
 	/**
 	 * Shuffle only cards that are in the active pile. Burn pile is unaffected.
 	 */
 	public void shuffleActiveOnly() {
-		ArrayList<Card> tempDeck = new ArrayList<Card>();
-		
-		// move all active cards to temp arraylist
-		while (!activePile.isEmpty()) {
-			tempDeck.add(activePile.poll());
-		}
-		
-		activePile = shuffle(tempDeck);
-		
+		shuffle(cursor, cards.length);
+	}
+	
+	/**
+	 * Hi-Lo running count of every card drawn since the last shuffle
+	 * @return Running count
+	 */
+	public int runningCount() {
+		return runningCount;
+	}
+	
+	/**
+	 * Hi-Lo true count: the running count divided by the number of decks left
+	 * in the active pile (never less than one card's worth)
+	 * @return True count
+	 */
+	public double trueCount() {
+		return runningCount * (double) DECK_SIZE / Math.max(1, activeCount());
+	}
+	
+	/**
+	 * How many cards of a given rank have not been drawn since the last shuffle
+	 * @param rank Rank to look up
+	 * @return # of unseen cards of that rank
+	 */
+	public int remainingCount(Rank rank) {
+		if (rank == Rank.Joker) return 0;
+		return rankCounts[rank.ordinal() - 1];
+	}
+	
+	/**
+	 * Copies the composition of the active pile into a count vector
+	 * @param counts Array of at least 13 to fill, indexed by rank - 1 (Ace
+	 * first, King last), or null for a new one
+	 * @return counts, filled
+	 */
+	public int[] getComposition(int[] counts) {
+		if (counts == null) counts = new int[rankCounts.length];
+		System.arraycopy(rankCounts, 0, counts, 0, rankCounts.length);
+		return counts;
+	}
+
+	/**
+	 * Takes a snapshot of the active pile's composition and the count, in
+	 * O(1). The snapshot shares the deck's counts until either side changes
+	 * them, so it is unaffected by later draws, and changing it leaves the
+	 * deck alone.
+	 * @return Snapshot of the deck as it is now
+	 */
+	public DeckSnapshot snapshot() {
+		countsShared = true;
+		return new DeckSnapshot(rankCounts, activeCount(), runningCount, packCount);
 	}
 	
 	/**
@@ -142,47 +349,127 @@ public class Deck {
 	 * @return True if there are cards still in the active pile, false otherwise.
 	 */
 	public boolean isEmpty() {
-		return activePile.isEmpty();
+		return cursor == cards.length;
 	}
 	
 	/**
-	 * The real meat behind the shuffler. Randomly pulls a card from the burn pile
-	 * and queues it up in the active deck
-	 * @param cards Cards to shuffle (ArrayList)
-	 * @return Shuffled pile (Queue)
+	 * The real meat behind the shuffler. In-place Fisher-Yates shuffle of a
+	 * range of the card array
+	 * @param from First position to shuffle (inclusive)
+	 * @param to Last position to shuffle (exclusive)
 	 */
-	private Queue<Card> shuffle(ArrayList<Card> cards) {
+	private void shuffle(int from, int to) {
+		RandomGenerator rand = generator();
+		byte temp;
 		int index;
-		Random rand = new Random();
-		Queue<Card> deck = new LinkedList<Card>();
-		
 		
-		while (!cards.isEmpty()) {
-			index = (int) ( rand.nextDouble() * cards.size() );
-			deck.add(cards.get(index));
-			cards.remove(index);
+		for (int i = to - 1; i > from; i--) {
+			index = from + rand.nextInt(i - from + 1);
+			temp = cards[i];
+			cards[i] = cards[index];
+			cards[index] = temp;
 		}
-		
-		return deck;
 	}
 
 	/**
-	 * Creates all cards for Deck, based on number of decks specified in constructor
+	 * Swaps a uniformly random card of the active pile to the cursor, so a
+	 * continuous shuffler's next draw is random
+	 */
+	private void pickRandom() {
+		int index = cursor + generator().nextInt(cards.length - cursor);
+		byte temp = cards[index];
+		cards[index] = cards[cursor];
+		cards[cursor] = temp;
+	}
+
+	/**
+	 * Generator for the next shuffle or random draw
+	 * @return The deck's SplittableRandom, or the thread's ThreadLocalRandom
+	 */
+	private RandomGenerator generator() {
+		if (random != null) return random;
+		return ThreadLocalRandom.current();
+	}
+
+	/**
+	 * Updates the count for a card leaving the shoe
+	 * @param code Code of card drawn
+	 * @return code, so it can be passed straight through
+	 */
+	private int countCard(int code) {
+		if (countsShared) ownCounts();
+		rankCounts[code % 13]--;
+		runningCount = runningCount + HI_LO[code];
+		return code;
+	}
+	
+	/**
+	 * Resets the count after a shuffle: the running count goes back to zero,
+	 * and the unseen cards are exactly those in the active pile. Done as part
+	 * of the shuffle pass, which is O(n) already.
+	 */
+	private void resetCount() {
+		if (countsShared) {
+			rankCounts = new int[rankCounts.length];
+			countsShared = false;
+		} else {
+			Arrays.fill(rankCounts, 0);
+		}
+		for (int i = cursor; i < cards.length; i++) {
+			rankCounts[cards[i] % 13]++;
+		}
+		runningCount = 0;
+	}
+	
+	/**
+	 * Gives the deck its own copy of the rank counts, which a snapshot was
+	 * sharing, before they change
+	 */
+	private void ownCounts() {
+		rankCounts = rankCounts.clone();
+		countsShared = false;
+	}
+
+	/**
+	 * Hi-Lo tag of a rank
+	 * @param rank Rank (1-13)
+	 * @return +1 for 2-6, 0 for 7-9, -1 for 10-K and A
+	 */
+	public static int hiLoOf(int rank) {
+		if (rank >= 2 && rank <= 6) return 1;
+		if (rank == 1 || rank >= 10) return -1;
+		return 0;
+	}
+
+	/**
+	 * Builds the Hi-Lo tag table used by countCard
+	 * @return Hi-Lo tags indexed by card code
+	 */
+	private static byte[] buildHiLoTags() {
+		byte[] tags = new byte[Card.PACK_SIZE];
+		for (int code = 0; code < tags.length; code++) {
+			tags[code] = (byte) hiLoOf(Card.rankOf(code));
+		}
+		return tags;
+	}
+	
+	/**
+	 * Creates all cards for Deck, based on number of decks specified in constructor.
+	 * All cards start out in the active pile.
 	 * @param cnt # of decks in Deck
 	 * @param context CardContext of Deck/Cards
 	 */
 	private void initDeck(int cnt, CardContext context) {
-		ArrayList<Card> deck = new ArrayList<Card>();
 		int numCards = cnt * DECK_SIZE;
-		int suit,rank;
 		
+		cards = new byte[numCards];
 		for (int i = 0; i < numCards; i++) {
-			rank = (i % 13) + 1;
-			suit = (i % 52) / 13;
-			deck.add(new Card(Suit.convert(suit), Rank.convert(rank), context));
+			cards[i] = (byte) (i % DECK_SIZE);
 		}
 
-		burnPile = deck;
+		cursor = 0;
+		burnCount = 0;
+		rankCounts = new int[13];
 	}
 
 
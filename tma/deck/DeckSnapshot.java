@@ -0,0 +1,152 @@
+package tma.deck;
+
+import tma.deck.card.Rank;
+
+/**
+ * A DeckSnapshot is the composition of a Deck's active pile, and its Hi-Lo
+ * count, as they were when the snapshot was taken (see Deck.snapshot()).
+ * Cards can then be taken out of it, or put back, to ask what-if questions
+ * (e.g. "remove these cards and evaluate") without touching the deck.
+ * <br><br>
+ * Taking a snapshot, and copying one, is O(1): the rank counts are shared
+ * with the deck, or with the snapshot copied, until one side changes them,
+ * at which point that side copies them first (copy-on-write). An analysis
+ * that explores many branches from one decision copies the snapshot at each
+ * branch, and only the branches that actually remove cards pay for the 13
+ * counts. A snapshot is not thread-safe, but copies of it can be handed to
+ * other threads.
+ *
+ * @version 1.0
+ */
+public final class DeckSnapshot {
+	private static final int DECK_SIZE = 52;
+
+	private int[] counts;
+	// true while another snapshot or the deck may still be sharing counts
+	private boolean shared;
+	private int size;
+	private int runningCount;
+	private final int packs;
+
+	/**
+	 * Creates a snapshot sharing a deck's rank counts
+	 * @param counts Unseen cards of each rank (index = rank - 1), shared
+	 * @param size # of cards in the active pile
+	 * @param runningCount Hi-Lo running count
+	 * @param packs # of decks in the deck
+	 */
+	DeckSnapshot(int[] counts, int size, int runningCount, int packs) {
+		this.counts = counts;
+		this.shared = true;
+		this.size = size;
+		this.runningCount = runningCount;
+		this.packs = packs;
+	}
+
+	/**
+	 * Copies the snapshot in O(1). The copy and this snapshot can be changed
+	 * independently.
+	 * @return Copy of this snapshot
+	 */
+	public DeckSnapshot copy() {
+		shared = true;
+		return new DeckSnapshot(counts, size, runningCount, packs);
+	}
+
+	/**
+	 * Takes a card of a given rank out of the snapshot, as if it had been
+	 * drawn. The running count moves by its Hi-Lo tag.
+	 * @param rank Rank of card to remove
+	 * @return True if removed, false if none of that rank are left
+	 */
+	public boolean remove(Rank rank) {
+		if (remainingCount(rank) == 0) return false;
+		int index = rank.ordinal() - 1;
+		if (shared) own();
+		counts[index]--;
+		size--;
+		runningCount = runningCount + Deck.hiLoOf(rank.ordinal());
+		return true;
+	}
+
+	/**
+	 * Puts a card of a given rank back into the snapshot, undoing remove()
+	 * @param rank Rank of card to put back
+	 * @return True if added, false if the deck never held another of that
+	 * rank
+	 */
+	public boolean add(Rank rank) {
+		if (rank == Rank.Joker) return false;
+		int index = rank.ordinal() - 1;
+		if (counts[index] >= 4 * packs) return false;
+		if (shared) own();
+		counts[index]++;
+		size++;
+		runningCount = runningCount - Deck.hiLoOf(rank.ordinal());
+		return true;
+	}
+
+	/**
+	 * How many cards of a given rank are left
+	 * @param rank Rank to look up
+	 * @return # of cards of that rank
+	 */
+	public int remainingCount(Rank rank) {
+		if (rank == Rank.Joker) return 0;
+		return counts[rank.ordinal() - 1];
+	}
+
+	/**
+	 * Chance that the next card drawn is of a given rank
+	 * @param rank Rank to look up
+	 * @return Probability (0-1), 0 if no cards are left
+	 */
+	public double probability(Rank rank) {
+		if (size == 0) return 0;
+		return remainingCount(rank) / (double) size;
+	}
+
+	/**
+	 * Copies the composition into a count vector
+	 * @param into Array of at least 13 to fill, indexed by rank - 1 (Ace
+	 * first, King last), or null for a new one
+	 * @return into, filled
+	 */
+	public int[] getComposition(int[] into) {
+		if (into == null) into = new int[counts.length];
+		System.arraycopy(counts, 0, into, 0, counts.length);
+		return into;
+	}
+
+	/**
+	 * # of cards left
+	 * @return # of cards
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Hi-Lo running count, including cards removed from the snapshot
+	 * @return Running count
+	 */
+	public int runningCount() {
+		return runningCount;
+	}
+
+	/**
+	 * Hi-Lo true count, as Deck.trueCount()
+	 * @return True count
+	 */
+	public double trueCount() {
+		return runningCount * (double) DECK_SIZE / Math.max(1, size);
+	}
+
+	/**
+	 * Gives this snapshot its own copy of the counts before they change
+	 */
+	private void own() {
+		counts = counts.clone();
+		shared = false;
+	}
+}